@@ -0,0 +1,22 @@
+package ca.utoronto.ece496.samples;
+
+/**
+ * Address of a {@link UserForm}, a nested DTO
+ */
+public class Address {
+    private String street;
+    private String city;
+
+    public Address(String street, String city) {
+        this.street = street;
+        this.city = city;
+    }
+
+    public String getStreet() {
+        return street;
+    }
+
+    public String getCity() {
+        return city;
+    }
+}
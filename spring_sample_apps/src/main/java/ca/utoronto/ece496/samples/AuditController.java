@@ -0,0 +1,25 @@
+package ca.utoronto.ece496.samples;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Handlers with several flows each, all attributable to the handler itself
+ */
+@RestController
+public class AuditController {
+    @RequestMapping("/audit")
+    public String audit(String user) {
+        Mock.sink("login " + user);
+        Mock.sink("access " + user);
+        Mock.sink("logout " + user);
+        return user;
+    }
+
+    @RequestMapping("/trace")
+    public String trace(String id) {
+        Mock.sink("start " + id);
+        Mock.sink("end " + id);
+        return id;
+    }
+}
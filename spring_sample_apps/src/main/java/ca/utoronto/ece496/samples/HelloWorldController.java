@@ -36,6 +36,39 @@ public class HelloWorldController {
         return userName;
     }
 
+    /**
+     * Only reads the shared state and never reaches a sink
+     *
+     * @return whether data has been set
+     */
+    @RequestMapping("/status")
+    public String status() {
+        return data == null ? "empty" : "ready";
+    }
+
+    /**
+     * Reads no state and takes no param, its source only reaches the
+     * default sink through the return value
+     *
+     * @return a tainted greeting
+     */
+    @RequestMapping("/greeting")
+    public String greeting() {
+        return Mock.source();
+    }
+
+    /**
+     * The tainted param only reaches the default sink through the string
+     * concatenation in library code
+     *
+     * @param name user name passed from user's request
+     * @return a greeting containing the name
+     */
+    @RequestMapping("/greet")
+    public String greet(@RequestParam String name) {
+        return "Hi " + name;
+    }
+
     public void doSink(String data) {
         Mock.sink(data);
     }
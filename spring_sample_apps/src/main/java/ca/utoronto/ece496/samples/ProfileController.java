@@ -0,0 +1,33 @@
+package ca.utoronto.ece496.samples;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Handlers taking the same DTO params, to compare dummy mains with and
+ * without shared param instances
+ */
+@RestController
+public class ProfileController {
+    @RequestMapping("/profile")
+    public String show(UserForm form) {
+        return "Hello " + form.getName();
+    }
+
+    @RequestMapping("/profile/address")
+    public String address(UserForm form, Address billing) {
+        return form.getAddress().getCity() + " / " + billing.getCity();
+    }
+
+    @RequestMapping("/profile/rename")
+    public String rename(UserForm form, String name) {
+        form.setName(name);
+        return "renamed";
+    }
+
+    @RequestMapping("/profile/billing")
+    public String billing(Address billing) {
+        Mock.sink(billing.getStreet());
+        return "ok";
+    }
+}
@@ -0,0 +1,28 @@
+package ca.utoronto.ece496.samples;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Path-heavy handlers: every request param reaches 32 sinks behind the
+ * same service and DAO chain
+ */
+@RestController
+public class ReportController {
+    private final ReportService service = new ReportService();
+
+    @RequestMapping("/report/daily")
+    public String daily(String name) {
+        return service.render(name);
+    }
+
+    @RequestMapping("/report/weekly")
+    public String weekly(String name) {
+        return service.render(name);
+    }
+
+    @RequestMapping("/report/monthly")
+    public String monthly(String name) {
+        return service.render(name);
+    }
+}
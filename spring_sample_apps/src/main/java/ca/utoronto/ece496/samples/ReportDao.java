@@ -0,0 +1,37 @@
+package ca.utoronto.ece496.samples;
+
+/**
+ * Chain of lookups every report passes through, so that all report paths
+ * share the same long middle part
+ */
+public class ReportDao {
+    public String find(String key) {
+        return normalize(key);
+    }
+
+    private String normalize(String key) {
+        String trimmed = key.trim();
+        return escape(trimmed);
+    }
+
+    private String escape(String key) {
+        String escaped = key.replace('\'', '_');
+        return quote(escaped);
+    }
+
+    private String quote(String key) {
+        String quoted = "'" + key + "'";
+        return query(quoted);
+    }
+
+    private String query(String key) {
+        String sql = "select * from reports where name = " + key;
+        return load(sql);
+    }
+
+    private String load(String sql) {
+        StringBuilder row = new StringBuilder(sql);
+        row.append(" limit 1");
+        return row.toString();
+    }
+}
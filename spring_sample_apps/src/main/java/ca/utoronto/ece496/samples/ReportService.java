@@ -0,0 +1,54 @@
+package ca.utoronto.ece496.samples;
+
+/**
+ * Sends a report row to many sinks, each of them a separate result with
+ * its own path through {@link ReportDao}
+ */
+public class ReportService {
+    private final ReportDao dao = new ReportDao();
+
+    public String render(String name) {
+        String row = dao.find(name);
+        publish(row);
+        archive(row);
+        return "rendered";
+    }
+
+    private void publish(String row) {
+        Mock.sink("mail: " + row);
+        Mock.sink("chat: " + row);
+        Mock.sink("log: " + row);
+        Mock.sink("audit: " + row);
+        Mock.sink("cache: " + row);
+        Mock.sink("search: " + row);
+        Mock.sink("metrics: " + row);
+        Mock.sink("export: " + row);
+        Mock.sink("feed: " + row);
+        Mock.sink("backup: " + row);
+        Mock.sink("print: " + row);
+        Mock.sink("fax: " + row);
+        Mock.sink("sms: " + row);
+        Mock.sink("push: " + row);
+        Mock.sink("webhook: " + row);
+        Mock.sink("queue: " + row);
+    }
+
+    private void archive(String row) {
+        Mock.sink("s3: " + row);
+        Mock.sink("tape: " + row);
+        Mock.sink("nfs: " + row);
+        Mock.sink("ftp: " + row);
+        Mock.sink("dropbox: " + row);
+        Mock.sink("drive: " + row);
+        Mock.sink("glacier: " + row);
+        Mock.sink("hdfs: " + row);
+        Mock.sink("sftp: " + row);
+        Mock.sink("blob: " + row);
+        Mock.sink("disk: " + row);
+        Mock.sink("usb: " + row);
+        Mock.sink("dvd: " + row);
+        Mock.sink("mirror: " + row);
+        Mock.sink("cold: " + row);
+        Mock.sink("warm: " + row);
+    }
+}
@@ -0,0 +1,38 @@
+package ca.utoronto.ece496.samples;
+
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.security.Principal;
+
+/**
+ * Handlers taking the servlet and Spring request types directly instead of
+ * bound Strings, their request data is only tainted if the params are stubs
+ */
+@RestController
+public class RequestController {
+    @RequestMapping("/request/search")
+    public String search(HttpServletRequest request) {
+        return request.getParameter("q");
+    }
+
+    @RequestMapping("/request/whoami")
+    public String whoami(Principal principal) {
+        return principal.getName();
+    }
+
+    @RequestMapping("/request/cart")
+    public String cart(HttpSession session) {
+        return (String) session.getAttribute("cart");
+    }
+
+    @RequestMapping("/request/upload")
+    public String upload(MultipartFile file, Model model) {
+        model.addAttribute("uploaded", true);
+        return file.getOriginalFilename();
+    }
+}
@@ -0,0 +1,26 @@
+package ca.utoronto.ece496.samples;
+
+/**
+ * Form object bound from the request, shared by several handlers
+ */
+public class UserForm {
+    private String name;
+    private Address address;
+
+    public UserForm(String name, Address address) {
+        this.name = name;
+        this.address = address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,499 @@
+package ca.utoronto.ece496.callgraph;
+
+import ca.utoronto.ece496.utils.SootUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.*;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Call graph persisted in a compact binary file, so that later runs only have
+ * to patch the edges of classes whose bytecode changed instead of running
+ * SPARK on the whole application again
+ * <p>
+ * File layout (all numbers are big endian ints):
+ * <pre>
+ * MAGIC VERSION
+ * classCount   { name bytecodeHash shapeHash }   (shapeHash 0 if unknown)
+ * methodCount  { signature }
+ * kindCount    { kindName }
+ * edgeCount    { srcMethodId srcUnitIndex tgtMethodId kindId }  (srcUnitIndex -1 if no call site)
+ * </pre>
+ * Strings are stored as a length followed by UTF-8 bytes.
+ */
+public class CallGraphCache {
+    private static final Logger logger = LoggerFactory.getLogger(CallGraphCache.class);
+
+    private static final int MAGIC = 0x43474330; // "CGC0"
+    private static final int VERSION = 1;
+    private static final int NO_UNIT = -1;
+
+    private static final String RUNNABLE_RUN = "<java.lang.Runnable: void run()>";
+    private static final String PRIVILEGED_RUN = "<java.security.PrivilegedAction: java.lang.Object run()>";
+
+    private final Map<String, Integer> classHashes;
+    private final Map<String, Integer> shapeHashes;
+    private final String[] methods;
+    private final String[] kinds;
+    private final EdgeTable edges;
+
+    /**
+     * Read only view on the edge section of the mapped file
+     */
+    private static class EdgeTable {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int count;
+
+        EdgeTable(ByteBuffer buffer, int offset, int count) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        int get(int index) {
+            return buffer.getInt(offset + index * 4);
+        }
+
+        int size() {
+            return count;
+        }
+    }
+
+    private CallGraphCache(Map<String, Integer> classHashes, Map<String, Integer> shapeHashes,
+                           String[] methods, String[] kinds, EdgeTable edges) {
+        this.classHashes = classHashes;
+        this.shapeHashes = shapeHashes;
+        this.methods = methods;
+        this.kinds = kinds;
+        this.edges = edges;
+    }
+
+    public int getEdgeCount() {
+        return edges.size() / 4;
+    }
+
+    /**
+     * Memory map a cache file written by {@link #write}
+     *
+     * @return the cache, or null if the file is missing or has an unknown format
+     */
+    public static CallGraphCache read(Path file) throws IOException {
+        if (!Files.isRegularFile(file))
+            return null;
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            logger.warn("Ignoring call graph cache with unknown format: {}", file);
+            return null;
+        }
+
+        int classCount = buffer.getInt();
+        Map<String, Integer> classHashes = new HashMap<>(classCount * 2);
+        Map<String, Integer> shapeHashes = new HashMap<>();
+        for (int i = 0; i < classCount; i++) {
+            String name = readString(buffer);
+            classHashes.put(name, buffer.getInt());
+            int shape = buffer.getInt();
+            if (shape != 0)
+                shapeHashes.put(name, shape);
+        }
+
+        String[] methods = new String[buffer.getInt()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = readString(buffer);
+        }
+
+        String[] kinds = new String[buffer.getInt()];
+        for (int i = 0; i < kinds.length; i++) {
+            kinds[i] = readString(buffer);
+        }
+
+        int edgeCount = buffer.getInt();
+        EdgeTable edges = new EdgeTable(buffer, buffer.position(), edgeCount * 4);
+
+        return new CallGraphCache(classHashes, shapeHashes, methods, kinds, edges);
+    }
+
+    /**
+     * Write a call graph together with the bytecode hashes it was built from
+     *
+     * @param file        target file, replaced atomically
+     * @param callGraph   call graph to persist
+     * @param classHashes bytecode hashes of the class path, see {@link ClassFileHashes#compute}
+     */
+    public static void write(Path file, CallGraph callGraph, Map<String, Integer> classHashes) throws IOException {
+        Map<SootMethod, Integer> methodIds = new LinkedHashMap<>();
+        Map<String, Integer> kindIds = new LinkedHashMap<>();
+        Map<SootMethod, Map<Unit, Integer>> unitIndices = new HashMap<>();
+        List<int[]> edgeList = new ArrayList<>();
+
+        for (Edge edge : callGraph) {
+            SootMethod src = edge.src();
+            SootMethod tgt = edge.tgt();
+            if (src == null || tgt == null)
+                continue;
+
+            int srcUnit = NO_UNIT;
+            if (edge.srcUnit() != null) {
+                Integer index = unitIndices.computeIfAbsent(src, CallGraphCache::indexUnits).get(edge.srcUnit());
+                if (index == null)
+                    continue;
+                srcUnit = index;
+            }
+
+            edgeList.add(new int[]{
+                    methodIds.computeIfAbsent(src, m -> methodIds.size()),
+                    srcUnit,
+                    methodIds.computeIfAbsent(tgt, m -> methodIds.size()),
+                    kindIds.computeIfAbsent(edge.kind().toString(), k -> kindIds.size())
+            });
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(classHashes.size());
+            for (Map.Entry<String, Integer> entry : classHashes.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+
+                Integer shape = Scene.v().containsClass(entry.getKey())
+                        ? ClassFileHashes.shapeHash(Scene.v().getSootClass(entry.getKey())) : null;
+                out.writeInt(shape == null ? 0 : shape);
+            }
+
+            out.writeInt(methodIds.size());
+            for (SootMethod method : methodIds.keySet()) {
+                writeString(out, method.getSignature());
+            }
+
+            out.writeInt(kindIds.size());
+            for (String kind : kindIds.keySet()) {
+                writeString(out, kind);
+            }
+
+            out.writeInt(edgeList.size());
+            for (int[] edge : edgeList) {
+                for (int value : edge) {
+                    out.writeInt(value);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info("Call graph cache written: {} methods, {} edges", methodIds.size(), edgeList.size());
+    }
+
+    /**
+     * Rebuild the call graph for the current Scene
+     * <p>
+     * Edges of classes with unchanged bytecode are restored as they are. Methods
+     * of changed classes and of synthetic classes whose bodies changed (e.g. the
+     * dummy main) get their outgoing edges recomputed with CHA, and so do methods
+     * that only become reachable through those new edges. Recomputed methods get
+     * the implicit edges SPARK adds as well: static initializers for static calls,
+     * static field accesses and allocations, finalize() for constructors, and the
+     * run() methods behind Thread.start(), Executor.execute() and doPrivileged().
+     * <p>
+     * The restored SPARK edges of virtual calls and of the run() edges depend on
+     * points-to sets, which a changed class can widen anywhere (e.g. by allocating
+     * another subtype that flows into unchanged code). So as soon as any class
+     * changed, every restored method also gets the CHA targets of those. The
+     * result is less precise than a fresh SPARK graph but contains all of its
+     * edges. Reflective calls are not resolved, as in SPARK with the default
+     * options.
+     * <p>
+     * If the hierarchy or the set of methods of any class in the Scene changed,
+     * patching is not safe and null is returned so the caller builds from scratch
+     *
+     * @param currentHashes bytecode hashes of the current class path
+     * @return patched call graph, or null if a full rebuild is required
+     */
+    public CallGraph patch(Map<String, Integer> currentHashes) {
+        Set<String> dirtyClasses = new HashSet<>();
+        for (SootClass sootClass : Scene.v().getClasses()) {
+            String name = sootClass.getName();
+            Integer current = currentHashes.get(name);
+            if (current == null) {
+                // synthetic class that can not be hashed, always recomputed
+                if (!sootClass.isPhantom())
+                    dirtyClasses.add(name);
+                continue;
+            }
+
+            Integer cached = classHashes.get(name);
+            if (current.equals(cached))
+                continue;
+
+            if (sootClass.resolvingLevel() < SootClass.HIERARCHY)
+                continue;
+
+            Integer shape = ClassFileHashes.shapeHash(sootClass);
+            if (cached == null || shape == null || !shape.equals(shapeHashes.get(name))) {
+                logger.info("Class hierarchy changed at {}, call graph cache is not reusable", name);
+                return null;
+            }
+            dirtyClasses.add(name);
+        }
+
+        Kind[] kindValues = new Kind[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            try {
+                kindValues[i] = (Kind) Kind.class.getField(kinds[i]).get(null);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                logger.warn("Unknown edge kind {} in call graph cache", kinds[i]);
+                return null;
+            }
+        }
+
+        SootMethod[] methodValues = new SootMethod[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            SootMethod method = Scene.v().grabMethod(methods[i]);
+            if (method == null && !dirtyClasses.contains(classNameOf(methods[i]))) {
+                logger.info("Method {} disappeared, call graph cache is not reusable", methods[i]);
+                return null;
+            }
+            methodValues[i] = method;
+        }
+
+        CallGraph callGraph = new CallGraph();
+        Set<SootMethod> knownMethods = new HashSet<>();
+        Set<SootMethod> restoredMethods = new LinkedHashSet<>();
+        Map<SootMethod, List<Unit>> unitsByMethod = new HashMap<>();
+        int restored = 0;
+
+        for (int i = 0; i < edges.size(); i += 4) {
+            SootMethod src = methodValues[edges.get(i)];
+            SootMethod tgt = methodValues[edges.get(i + 2)];
+            if (src == null || tgt == null)
+                continue;
+
+            knownMethods.add(src);
+            knownMethods.add(tgt);
+            if (dirtyClasses.contains(src.getDeclaringClass().getName()))
+                continue;
+
+            Unit srcUnit = null;
+            int unitIndex = edges.get(i + 1);
+            if (unitIndex != NO_UNIT) {
+                List<Unit> units = unitsByMethod.computeIfAbsent(src, m -> new ArrayList<>(m.retrieveActiveBody().getUnits()));
+                if (unitIndex >= units.size()) {
+                    logger.info("Body of {} does not match the cache, call graph cache is not reusable", src);
+                    return null;
+                }
+                srcUnit = units.get(unitIndex);
+            }
+
+            callGraph.addEdge(new Edge(src, (Stmt) srcUnit, tgt, kindValues[edges.get(i + 3)]));
+            restoredMethods.add(src);
+            restored++;
+        }
+
+        // recompute outgoing edges of changed methods, and of methods first reached through them
+        Deque<SootMethod> worklist = new ArrayDeque<>();
+        for (SootMethod method : knownMethods) {
+            if (dirtyClasses.contains(method.getDeclaringClass().getName()))
+                worklist.add(method);
+        }
+        worklist.addAll(Scene.v().getEntryPoints());
+
+        int widened = 0;
+        if (!dirtyClasses.isEmpty()) {
+            for (SootMethod method : restoredMethods) {
+                widened += addCHAEdges(callGraph, method, true, knownMethods, worklist);
+            }
+        }
+
+        Set<SootMethod> visited = new HashSet<>();
+        int recomputed = 0;
+        while (!worklist.isEmpty()) {
+            SootMethod method = worklist.poll();
+            if (!visited.add(method) || !method.isConcrete())
+                continue;
+
+            boolean dirty = dirtyClasses.contains(method.getDeclaringClass().getName());
+            if (!dirty && knownMethods.contains(method))
+                continue;
+
+            recomputed += addCHAEdges(callGraph, method, false, knownMethods, worklist);
+        }
+
+        logger.info("Call graph restored from cache: {} edges reused, {} CHA edges added at reused call sites, " +
+                "{} edges recomputed for {} changed classes", restored, widened, recomputed, dirtyClasses.size());
+        return callGraph;
+    }
+
+    /**
+     * Add the CHA edges of a method that are missing from the graph
+     *
+     * @param pointsToOnly only add the edges whose SPARK targets depend on points-to
+     *                     sets (virtual calls and run() behind Thread.start() etc.)
+     * @param worklist     receives targets that are not in the cached graph yet
+     * @return number of edges added
+     */
+    private static int addCHAEdges(CallGraph callGraph, SootMethod method, boolean pointsToOnly,
+                                   Set<SootMethod> knownMethods, Deque<SootMethod> worklist) {
+        List<Edge> candidates = new ArrayList<>();
+        if (!pointsToOnly && method.isConstructor()) {
+            SootMethod finalizer = method.getDeclaringClass().getMethodUnsafe("void finalize()");
+            if (finalizer != null && finalizer.isConcrete())
+                candidates.add(new Edge(method, null, finalizer, Kind.FINALIZE));
+        }
+
+        for (Unit unit : method.retrieveActiveBody().getUnits()) {
+            Stmt stmt = (Stmt) unit;
+            if (stmt.containsInvokeExpr()) {
+                InvokeExpr invokeExpr = stmt.getInvokeExpr();
+                if (!pointsToOnly || invokeExpr instanceof VirtualInvokeExpr || invokeExpr instanceof InterfaceInvokeExpr) {
+                    for (SootMethod callee : SootUtil.getCHACallees(invokeExpr)) {
+                        candidates.add(new Edge(method, stmt, callee, Edge.ieToKind(invokeExpr)));
+                    }
+                }
+                addRunEdges(method, stmt, invokeExpr, candidates);
+                if (!pointsToOnly && invokeExpr instanceof StaticInvokeExpr)
+                    addClinitEdges(method, stmt, invokeExpr.getMethodRef().declaringClass(), candidates);
+            }
+
+            if (pointsToOnly)
+                continue;
+
+            if (stmt.containsFieldRef() && stmt.getFieldRef() instanceof StaticFieldRef)
+                addClinitEdges(method, stmt, stmt.getFieldRef().getFieldRef().declaringClass(), candidates);
+
+            if (stmt instanceof AssignStmt) {
+                Value rightOp = ((AssignStmt) stmt).getRightOp();
+                if (rightOp instanceof NewExpr || rightOp instanceof NewArrayExpr || rightOp instanceof NewMultiArrayExpr) {
+                    Type type = rightOp.getType();
+                    if (type instanceof ArrayType)
+                        type = ((ArrayType) type).baseType;
+                    if (type instanceof RefType)
+                        addClinitEdges(method, stmt, ((RefType) type).getSootClass(), candidates);
+                }
+            }
+        }
+
+        int added = 0;
+        for (Edge edge : candidates) {
+            if (containsEdge(callGraph, edge))
+                continue;
+
+            callGraph.addEdge(edge);
+            added++;
+            if (!knownMethods.contains(edge.tgt()))
+                worklist.add(edge.tgt());
+        }
+        return added;
+    }
+
+    /**
+     * Thread.start(), Executor.execute(Runnable) and AccessController.doPrivileged(...)
+     * call run() on their receiver or first argument
+     */
+    private static void addRunEdges(SootMethod method, Stmt stmt, InvokeExpr invokeExpr, List<Edge> candidates) {
+        SootMethodRef methodRef = invokeExpr.getMethodRef();
+        String subSignature = methodRef.getSubSignature().getString();
+        Type baseType = invokeExpr instanceof InstanceInvokeExpr ? ((InstanceInvokeExpr) invokeExpr).getBase().getType() : null;
+        FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+
+        if (baseType != null && subSignature.equals("void start()")
+                && hierarchy.canStoreType(baseType, RefType.v("java.lang.Thread"))) {
+            addDispatchEdges(method, stmt, baseType, RUNNABLE_RUN, Kind.THREAD, candidates);
+        } else if (baseType != null && subSignature.equals("void execute(java.lang.Runnable)")
+                && hierarchy.canStoreType(baseType, RefType.v("java.util.concurrent.Executor"))) {
+            addDispatchEdges(method, stmt, invokeExpr.getArg(0).getType(), RUNNABLE_RUN, Kind.EXECUTOR, candidates);
+        } else if (methodRef.declaringClass().getName().equals("java.security.AccessController")
+                && methodRef.name().equals("doPrivileged") && invokeExpr.getArgCount() > 0) {
+            addDispatchEdges(method, stmt, invokeExpr.getArg(0).getType(), PRIVILEGED_RUN, Kind.PRIVILEGED, candidates);
+        }
+    }
+
+    /**
+     * @param receiverType    static type of the object the target is called on
+     * @param targetSignature method whose implementations in subtypes of the receiver type are called
+     */
+    private static void addDispatchEdges(SootMethod method, Stmt stmt, Type receiverType, String targetSignature,
+                                         Kind kind, List<Edge> candidates) {
+        SootMethod target = Scene.v().grabMethod(targetSignature);
+        if (target == null || !(receiverType instanceof RefType))
+            return;
+
+        Set<SootMethod> callees;
+        try {
+            callees = Scene.v().getOrMakeFastHierarchy()
+                    .resolveAbstractDispatch(((RefType) receiverType).getSootClass(), target);
+        } catch (RuntimeException e) {
+            // incomplete hierarchy (e.g. phantom super types)
+            return;
+        }
+        for (SootMethod callee : callees) {
+            if (callee.isConcrete())
+                candidates.add(new Edge(method, stmt, callee, kind));
+        }
+    }
+
+    /**
+     * Static initializers of the class and its superclasses, which may run at the statement
+     */
+    private static void addClinitEdges(SootMethod method, Stmt stmt, SootClass sootClass, List<Edge> candidates) {
+        for (SootMethod clinit : EntryPoints.v().clinitsOf(sootClass)) {
+            candidates.add(new Edge(method, stmt, clinit, Kind.CLINIT));
+        }
+    }
+
+    private static boolean containsEdge(CallGraph callGraph, Edge edge) {
+        Iterator<Edge> existing = edge.srcUnit() == null
+                ? callGraph.edgesOutOf(edge.src()) : callGraph.edgesOutOf(edge.srcUnit());
+        while (existing.hasNext()) {
+            Edge other = existing.next();
+            if (other.srcUnit() == edge.srcUnit() && other.tgt() == edge.tgt() && other.kind() == edge.kind())
+                return true;
+        }
+        return false;
+    }
+
+    private static Map<Unit, Integer> indexUnits(SootMethod method) {
+        Map<Unit, Integer> indices = new IdentityHashMap<>();
+        int index = 0;
+        for (Unit unit : method.retrieveActiveBody().getUnits()) {
+            indices.put(unit, index++);
+        }
+        return indices;
+    }
+
+    private static String classNameOf(String signature) {
+        return signature.substring(1, signature.indexOf(':'));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package ca.utoronto.ece496.callgraph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.infoflow.handlers.PreAnalysisHandler;
+import soot.jimple.toolkits.callgraph.CallGraph;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Reuses the call graph of a previous run, see {@link CallGraphCache}
+ * <p>
+ * Register it on the Infoflow instance before computeInfoflow is called:
+ * <pre>
+ * infoflow.setPreProcessors(listOf(CallGraphCacheHandler(cacheFile)))
+ * </pre>
+ * If the cache can be patched, the call graph construction phases are turned
+ * off and the patched graph is installed in their place. Only graphs built by
+ * SPARK are written back: a patched graph is partly CHA, and using it as the
+ * next baseline would lose precision with every run. Later runs keep patching
+ * against the last SPARK graph until a hierarchy change forces a rebuild.
+ */
+public class CallGraphCacheHandler implements PreAnalysisHandler {
+    private static final Logger logger = LoggerFactory.getLogger(CallGraphCacheHandler.class);
+
+    private static final String CACHE_PHASE = "cg.cache";
+    private static final String[] CALL_GRAPH_PHASES = {"cg.cha", "cg.spark"};
+
+    private final Path cacheFile;
+
+    private Map<String, Integer> classHashes;
+    private CallGraph cachedCallGraph;
+    private boolean loadedFromCache = false;
+
+    public CallGraphCacheHandler(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return true if the last analysis used the cached call graph instead of building one
+     */
+    public boolean isLoadedFromCache() {
+        return loadedFromCache;
+    }
+
+    @Override
+    public void onBeforeCallgraphConstruction() {
+        loadedFromCache = false;
+        cachedCallGraph = null;
+        // the full class path includes the prepended JDK classes
+        classHashes = ClassFileHashes.compute(Scene.v().getSootClassPath());
+        ClassFileHashes.addGeneratedClasses(classHashes);
+
+        try {
+            CallGraphCache cache = CallGraphCache.read(cacheFile);
+            if (cache != null)
+                cachedCallGraph = cache.patch(classHashes);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot use call graph cache {}, building from scratch", cacheFile, e);
+            cachedCallGraph = null;
+        }
+
+        Pack callGraphPack = PackManager.v().getPack("cg");
+        if (callGraphPack.get(CACHE_PHASE) == null) {
+            // installs the patched graph after the callgraph pack released the old one
+            callGraphPack.add(new Transform(CACHE_PHASE, new SceneTransformer() {
+                @Override
+                protected void internalTransform(String phaseName, Map<String, String> options) {
+                    if (cachedCallGraph != null)
+                        Scene.v().setCallGraph(cachedCallGraph);
+                }
+            }));
+        }
+
+        if (cachedCallGraph != null) {
+            for (String phase : CALL_GRAPH_PHASES) {
+                PhaseOptions.v().setPhaseOption(phase, "enabled:false");
+            }
+            loadedFromCache = true;
+        }
+    }
+
+    @Override
+    public void onAfterCallgraphConstruction() {
+        cachedCallGraph = null;
+        if (loadedFromCache)
+            return;
+
+        try {
+            CallGraphCache.write(cacheFile, Scene.v().getCallGraph(), classHashes);
+        } catch (IOException e) {
+            logger.warn("Cannot write call graph cache {}", cacheFile, e);
+        }
+    }
+}
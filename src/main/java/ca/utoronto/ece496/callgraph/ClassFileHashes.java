@@ -0,0 +1,155 @@
+package ca.utoronto.ece496.callgraph;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Bytecode hashes of every class on a class path, used to find out which
+ * classes changed since a cached call graph was written
+ * <p>
+ * Class files in directories are hashed with CRC32, for jar files the CRC
+ * already stored in the zip entry is used so that no class needs to be inflated
+ */
+public class ClassFileHashes {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String JAR_SUFFIX = ".jar";
+
+    /**
+     * Hash all classes on a class path
+     *
+     * @param classPath class path entries separated by {@link File#pathSeparator},
+     *                  directories may contain class files as well as jar files
+     * @return class name to bytecode hash
+     */
+    public static Map<String, Integer> compute(String classPath) {
+        Map<String, Integer> hashes = new HashMap<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (entry.isEmpty())
+                continue;
+
+            File file = new File(entry);
+            if (file.isDirectory())
+                hashDirectory(file.toPath(), hashes);
+            else if (file.getName().endsWith(JAR_SUFFIX))
+                hashJar(file, hashes);
+        }
+        return hashes;
+    }
+
+    /**
+     * Add hashes of the Jimple bodies of classes in the Scene that are not on
+     * the class path, e.g. the dummy main class and generated stubs, so that an
+     * unchanged one does not count as changed
+     *
+     * @param hashes class path hashes, see {@link #compute}
+     */
+    public static void addGeneratedClasses(Map<String, Integer> hashes) {
+        for (SootClass sootClass : Scene.v().getClasses()) {
+            if (hashes.containsKey(sootClass.getName()) || sootClass.isPhantom())
+                continue;
+
+            Integer hash = bodyHash(sootClass);
+            if (hash != null)
+                hashes.put(sootClass.getName(), hash);
+        }
+    }
+
+    /**
+     * @return hash of all method bodies, or null if a concrete method has no active body
+     */
+    private static Integer bodyHash(SootClass sootClass) {
+        CRC32 crc = new CRC32();
+        for (SootMethod method : sootClass.getMethods()) {
+            if (!method.isConcrete())
+                continue;
+            if (!method.hasActiveBody())
+                return null;
+            crc.update((method.getSignature() + "\n" + method.getActiveBody()).getBytes(StandardCharsets.UTF_8));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Hash of the parts of a class that call graph edges depend on besides
+     * method bodies: super types and declared methods
+     * <p>
+     * If this hash stays the same, only the bodies of the class changed, and
+     * it is enough to recompute the outgoing edges of its methods
+     *
+     * @return shape hash, or null if the class is not resolved to signatures
+     */
+    public static Integer shapeHash(SootClass sootClass) {
+        if (sootClass.resolvingLevel() < SootClass.SIGNATURES)
+            return null;
+
+        List<String> parts = new ArrayList<>();
+        parts.add("s:" + (sootClass.hasSuperclass() ? sootClass.getSuperclass().getName() : ""));
+        parts.add("c:" + sootClass.getModifiers());
+        for (SootClass iface : sootClass.getInterfaces()) {
+            parts.add("i:" + iface.getName());
+        }
+        for (SootMethod method : sootClass.getMethods()) {
+            parts.add("m:" + method.getModifiers() + ":" + method.getSubSignature());
+        }
+        Collections.sort(parts);
+        return parts.hashCode();
+    }
+
+    private static void hashDirectory(Path root, Map<String, Integer> hashes) {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.endsWith(CLASS_SUFFIX)) {
+                    hashes.put(toClassName(root.relativize(path).toString()), crc(path));
+                } else if (name.endsWith(JAR_SUFFIX)) {
+                    hashJar(path.toFile(), hashes);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void hashJar(File jar, Map<String, Integer> hashes) {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(CLASS_SUFFIX))
+                    hashes.put(toClassName(entry.getName()), (int) entry.getCrc());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int crc(Path path) {
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(path));
+            return (int) crc.getValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String toClassName(String relativePath) {
+        return relativePath
+                .substring(0, relativePath.length() - CLASS_SUFFIX.length())
+                .replace('\\', '/')
+                .replace('/', '.');
+    }
+}
@@ -0,0 +1,351 @@
+package ca.utoronto.ece496.infoflow;
+
+import ca.utoronto.ece496.spring.SpringAppEntryPointCreator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+import soot.jimple.infoflow.InfoflowManager;
+import soot.jimple.infoflow.data.Abstraction;
+import soot.jimple.infoflow.data.AbstractionAtSink;
+import soot.jimple.infoflow.data.AccessPath;
+import soot.jimple.infoflow.data.SourceContext;
+import soot.jimple.infoflow.handlers.TaintPropagationHandler;
+import soot.jimple.infoflow.problems.InfoflowProblem;
+import soot.jimple.infoflow.problems.TaintPropagationResults;
+import soot.jimple.infoflow.solver.cfg.IInfoflowCFG;
+import soot.jimple.infoflow.sourcesSinks.definitions.MethodSourceSinkDefinition;
+import soot.jimple.infoflow.sourcesSinks.definitions.SinkInfo;
+import soot.jimple.infoflow.sourcesSinks.manager.DefaultSourceSinkManager;
+import soot.jimple.infoflow.sourcesSinks.manager.ISourceSinkManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * "Any flow" mode for quick pass/fail answers, e.g. when gating merges
+ * <p>
+ * Confirmed flows are counted when FlowDroid records a result at a sink, once
+ * per pair of source and sink statement, and per sink method as configured (a
+ * virtual call matches the configured sink it resolves to). Once a cap is reached:
+ * <ul>
+ * <li>total cap: all further propagation is cut off and the solver drains</li>
+ * <li>per sink cap: the sink method no longer accepts taints, and once every
+ * sink method is exhausted propagation stops as for the total cap</li>
+ * <li>per entry point cap: propagation stops inside that entry point, i.e. for
+ * all taints whose calling context only belongs to exhausted entry points</li>
+ * </ul>
+ * A flow is attributed to an entry point if the sink is the default sink
+ * consuming its return value, or if the sink statement is only reachable from
+ * that single entry point. Flows reachable from several entry points only count
+ * towards the total and per sink caps.
+ * <p>
+ * Usage:
+ * <pre>
+ * val limiter = FlowLimiter(limitConfig, entryPointCreator)
+ * infoflow.setTaintPropagationHandler(limiter)
+ * infoflow.computeInfoflow(appPath, libPath, entryPointCreator, limiter.createSourceSinkManager(sources, sinks))
+ * </pre>
+ */
+public class FlowLimiter implements TaintPropagationHandler {
+    private static final Logger logger = LoggerFactory.getLogger(FlowLimiter.class);
+
+    /**
+     * Caps on the number of confirmed flows, 0 means unlimited
+     */
+    public static class Config {
+        /**
+         * Stop the whole run after this many flows, 1 for a plain "any flow" check
+         */
+        public int maxFlows = 1;
+
+        public int maxFlowsPerSink = 0;
+
+        public int maxFlowsPerEntryPoint = 0;
+
+        public Config() {
+        }
+
+        public Config(int maxFlows, int maxFlowsPerSink, int maxFlowsPerEntryPoint) {
+            this.maxFlows = maxFlows;
+            this.maxFlowsPerSink = maxFlowsPerSink;
+            this.maxFlowsPerEntryPoint = maxFlowsPerEntryPoint;
+        }
+    }
+
+    /**
+     * Accepts sinks as the default manager does, unless a cap already excludes them
+     */
+    private class LimitingSourceSinkManager extends DefaultSourceSinkManager {
+        LimitingSourceSinkManager(Collection<String> sources, Collection<String> sinks) {
+            super(sources, sinks);
+        }
+
+        @Override
+        public SinkInfo getSinkInfo(Stmt sCallSite, InfoflowManager manager, AccessPath ap) {
+            SinkInfo sinkInfo = super.getSinkInfo(sCallSite, manager, ap);
+            if (sinkInfo == null)
+                return null;
+
+            matchedSinks.putIfAbsent(sCallSite, sinkSignatureOf(sinkInfo, sCallSite));
+            // a null access path only asks whether the statement is a sink at all
+            if (ap == null)
+                return sinkInfo;
+
+            return isAccepted(sCallSite, manager.getICFG()) ? sinkInfo : null;
+        }
+    }
+
+    private final Config config;
+    private final SpringAppEntryPointCreator entryPointCreator;
+
+    private final Set<String> sinkSignatures = new HashSet<>();
+    private final Map<Stmt, String> matchedSinks = new ConcurrentHashMap<>();
+    private final Set<List<Object>> recordedFlows = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger flowCount = new AtomicInteger();
+    private final Map<String, AtomicInteger> flowsPerSink = new ConcurrentHashMap<>();
+    private final Set<String> exhaustedSinks = ConcurrentHashMap.newKeySet();
+    private final Map<SootMethod, AtomicInteger> flowsPerEntryPoint = new ConcurrentHashMap<>();
+    private final Map<SootMethod, Set<SootMethod>> entryPointsReaching = new ConcurrentHashMap<>();
+    private final Set<SootMethod> exhaustedEntryPoints = ConcurrentHashMap.newKeySet();
+    private final Map<Abstraction, Set<SootMethod>> contextEntryPoints = new ConcurrentHashMap<>();
+    private volatile TaintPropagationResults observedResults;
+    private final AtomicLong propagationCount = new AtomicLong();
+    private volatile boolean limitReached = false;
+
+    /**
+     * @param entryPointCreator creator of the dummy main, used to attribute flows to entry points
+     */
+    public FlowLimiter(Config config, SpringAppEntryPointCreator entryPointCreator) {
+        this.config = config;
+        this.entryPointCreator = entryPointCreator;
+    }
+
+    public ISourceSinkManager createSourceSinkManager(Collection<String> sources, Collection<String> sinks) {
+        sinkSignatures.addAll(sinks);
+        return new LimitingSourceSinkManager(sources, sinks);
+    }
+
+    /**
+     * @return true if the total cap was reached and propagation was stopped
+     */
+    public boolean isLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * @return number of confirmed flows recorded
+     */
+    public int getFlowCount() {
+        return flowCount.get();
+    }
+
+    /**
+     * @return number of taints the solver propagated, to compare limited and full runs
+     */
+    public long getPropagationCount() {
+        return propagationCount.get();
+    }
+
+    /**
+     * @return confirmed flows per entry point signature, only for flows that could be attributed
+     */
+    public Map<String, Integer> getFlowsPerEntryPoint() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<SootMethod, AtomicInteger> entry : flowsPerEntryPoint.entrySet()) {
+            result.put(entry.getKey().getSignature(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * @return false if a cap already excludes flows into the sink statement
+     */
+    private boolean isAccepted(Stmt sinkStmt, IInfoflowCFG icfg) {
+        if (limitReached || exhaustedSinks.contains(getSinkSignature(sinkStmt)))
+            return false;
+
+        SootMethod entryPoint = attributeToEntryPoint(sinkStmt, icfg);
+        return entryPoint == null || !exhaustedEntryPoints.contains(entryPoint);
+    }
+
+    /**
+     * Count a result FlowDroid recorded, duplicates of a source and sink pair are ignored
+     * <p>
+     * Synchronized so that concurrent results can not exceed a cap
+     *
+     * @return false to stop the analysis
+     */
+    private synchronized boolean onResultAdded(AbstractionAtSink result, IInfoflowCFG icfg) {
+        Stmt sinkStmt = result.getSinkStmt();
+        if (!recordedFlows.add(Arrays.asList(sinkStmt, findSourceContext(result.getAbstraction()))))
+            return !limitReached;
+
+        // accepted at the sink, but another flow may have used up the cap meanwhile
+        if (!isAccepted(sinkStmt, icfg))
+            return !limitReached;
+
+        String sink = getSinkSignature(sinkStmt);
+        if (config.maxFlowsPerSink > 0) {
+            int sinkCount = flowsPerSink.computeIfAbsent(sink, k -> new AtomicInteger()).incrementAndGet();
+            if (sinkCount >= config.maxFlowsPerSink && exhaustedSinks.add(sink)) {
+                logger.info("Flow cap reached for sink {}", sink);
+                if (exhaustedSinks.containsAll(sinkSignatures)) {
+                    limitReached = true;
+                    logger.info("Flow caps reached for all sinks, stopping propagation");
+                }
+            }
+        }
+
+        SootMethod entryPoint = attributeToEntryPoint(sinkStmt, icfg);
+        if (entryPoint != null) {
+            int entryCount = flowsPerEntryPoint.computeIfAbsent(entryPoint, k -> new AtomicInteger()).incrementAndGet();
+            if (config.maxFlowsPerEntryPoint > 0 && entryCount >= config.maxFlowsPerEntryPoint
+                    && exhaustedEntryPoints.add(entryPoint))
+                logger.info("Flow cap reached for entry point {}", entryPoint);
+        }
+
+        int total = flowCount.incrementAndGet();
+        if (config.maxFlows > 0 && total >= config.maxFlows) {
+            limitReached = true;
+            logger.info("Flow cap of {} reached at {}, stopping propagation", config.maxFlows, sinkStmt);
+        }
+        return !limitReached;
+    }
+
+    /**
+     * Only the abstraction created at the source carries the source context
+     */
+    private static SourceContext findSourceContext(Abstraction abstraction) {
+        Abstraction current = abstraction;
+        while (current != null && current.getSourceContext() == null) {
+            current = current.getPredecessor();
+        }
+        return current == null ? null : current.getSourceContext();
+    }
+
+    /**
+     * @return signature of the configured sink the statement matched
+     */
+    private String getSinkSignature(Stmt sinkStmt) {
+        String signature = matchedSinks.get(sinkStmt);
+        return signature != null ? signature : sinkStmt.getInvokeExpr().getMethodRef().getSignature();
+    }
+
+    /**
+     * The signature at a virtual call site may name another class than the
+     * configured sink, the sink definition names the matched one
+     */
+    private static String sinkSignatureOf(SinkInfo sinkInfo, Stmt sinkStmt) {
+        if (sinkInfo.getDefinition() instanceof MethodSourceSinkDefinition)
+            return ((MethodSourceSinkDefinition) sinkInfo.getDefinition()).getMethod().getSignature();
+        return sinkStmt.getInvokeExpr().getMethodRef().getSignature();
+    }
+
+    private SootMethod attributeToEntryPoint(Stmt sinkStmt, IInfoflowCFG icfg) {
+        SootMethod entryPoint = entryPointCreator.getEntryPointSinkCalls().get(sinkStmt);
+        if (entryPoint != null)
+            return entryPoint;
+
+        Set<SootMethod> reaching = getEntryPointsReaching(icfg.getMethodOf(sinkStmt), icfg);
+        return reaching.size() == 1 ? reaching.iterator().next() : null;
+    }
+
+    private Set<SootMethod> getEntryPointsReaching(SootMethod method, IInfoflowCFG icfg) {
+        return entryPointsReaching.computeIfAbsent(method, m -> findEntryPointsReaching(m, icfg));
+    }
+
+    /**
+     * Walk up the callers of the method until the entry point calls in the dummy main
+     */
+    private Set<SootMethod> findEntryPointsReaching(SootMethod method, IInfoflowCFG icfg) {
+        Map<Stmt, SootMethod> callSites = entryPointCreator.getEntryPointCallSites();
+        Set<SootMethod> result = new HashSet<>();
+        Set<SootMethod> visited = new HashSet<>();
+        Deque<SootMethod> worklist = new ArrayDeque<>();
+        worklist.add(method);
+        while (!worklist.isEmpty()) {
+            SootMethod current = worklist.poll();
+            if (!visited.add(current))
+                continue;
+
+            for (Unit caller : icfg.getCallersOf(current)) {
+                SootMethod entryPoint = callSites.get(caller);
+                if (entryPoint != null)
+                    result.add(entryPoint);
+                else
+                    worklist.add(icfg.getMethodOf(caller));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Observe the results of the solver the first time it propagates a taint
+     */
+    private void observeResults(InfoflowManager manager) {
+        if (!(manager.getForwardSolver().getTabulationProblem() instanceof InfoflowProblem))
+            return;
+
+        TaintPropagationResults results = ((InfoflowProblem) manager.getForwardSolver().getTabulationProblem()).getResults();
+        if (observedResults == results)
+            return;
+
+        synchronized (this) {
+            if (observedResults == results)
+                return;
+            IInfoflowCFG icfg = manager.getICFG();
+            results.addResultAvailableHandler(result -> onResultAdded(result, icfg));
+            observedResults = results;
+        }
+    }
+
+    /**
+     * @return the entry points the edge belongs to, empty if unknown
+     */
+    private Set<SootMethod> getEntryPointsOf(Unit stmt, Abstraction d1, InfoflowManager manager) {
+        Set<SootMethod> entryPoints = d1 == null ? null : contextEntryPoints.get(d1);
+        if (entryPoints != null)
+            return entryPoints;
+
+        // e.g. taints created by a source inside the entry point, with the zero context
+        IInfoflowCFG icfg = manager.getICFG();
+        return getEntryPointsReaching(icfg.getMethodOf(stmt), icfg);
+    }
+
+    @Override
+    public void notifyFlowIn(Unit stmt, Abstraction taint, InfoflowManager manager, FlowFunctionType type) {
+        observeResults(manager);
+        propagationCount.incrementAndGet();
+    }
+
+    @Override
+    public Set<Abstraction> notifyFlowOut(Unit stmt, Abstraction d1, Abstraction incoming, Set<Abstraction> outgoing,
+                                          InfoflowManager manager, FlowFunctionType type) {
+        if (limitReached)
+            return Collections.emptySet();
+        if (config.maxFlowsPerEntryPoint <= 0 || outgoing == null || outgoing.isEmpty())
+            return outgoing;
+
+        SootMethod calledEntryPoint = type == FlowFunctionType.CallFlowFunction
+                ? entryPointCreator.getEntryPointCallSites().get(stmt) : null;
+        Set<SootMethod> entryPoints = calledEntryPoint != null
+                ? Collections.singleton(calledEntryPoint) : getEntryPointsOf(stmt, d1, manager);
+        if (entryPoints.isEmpty())
+            return outgoing;
+
+        if (exhaustedEntryPoints.containsAll(entryPoints))
+            return Collections.emptySet();
+
+        // the outgoing taints of a call are the calling contexts of the callee
+        if (type == FlowFunctionType.CallFlowFunction) {
+            for (Abstraction abstraction : outgoing) {
+                contextEntryPoints.computeIfAbsent(abstraction, k -> ConcurrentHashMap.newKeySet()).addAll(entryPoints);
+            }
+        }
+        return outgoing;
+    }
+}
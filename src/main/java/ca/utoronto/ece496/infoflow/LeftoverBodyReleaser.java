@@ -0,0 +1,135 @@
+package ca.utoronto.ece496.infoflow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.infoflow.handlers.PreAnalysisHandler;
+import soot.jimple.toolkits.callgraph.ReachableMethods;
+
+import java.util.ArrayList;
+
+/**
+ * Releases, once after call graph construction, the library method bodies the
+ * steps before SPARK left in the Scene
+ * <p>
+ * SPARK itself only builds bodies of reachable methods, but the dummy main
+ * generation and the sink reachability pre-filter walk CHA callees and build
+ * theirs too. The bodies of library methods the call graph does not reach are
+ * released; should anything ask for one again, it is rebuilt from the class file.
+ * <p>
+ * Bodies of reachable methods are kept: the call graph edges, the ICFG and the
+ * solver's path edges refer to their statements, and a rebuilt body has new ones.
+ */
+public class LeftoverBodyReleaser implements PreAnalysisHandler {
+    private static final Logger logger = LoggerFactory.getLogger(LeftoverBodyReleaser.class);
+
+    /**
+     * Prefix of the classes a released method is read into, they never enter the Scene
+     */
+    private static final String SCRATCH_PREFIX = "_scratch_";
+
+    /**
+     * Rebuilds the body of a released method
+     */
+    private class ReloadingMethodSource implements MethodSource {
+        /**
+         * Source the method was loaded from, null if Soot already dropped it
+         */
+        private final MethodSource originalSource;
+
+        ReloadingMethodSource(MethodSource originalSource) {
+            this.originalSource = originalSource;
+        }
+
+        @Override
+        public Body getBody(SootMethod m, String phaseName) {
+            synchronized (LeftoverBodyReleaser.this) {
+                MethodSource source = originalSource != null ? originalSource : freshMethodSource(m);
+                if (source == null)
+                    throw new RuntimeException("Cannot reload body of " + m.getSignature());
+
+                reloads++;
+                return source.getBody(m, phaseName);
+            }
+        }
+    }
+
+    private int releasedBodies = 0;
+    private long releasedStatements = 0;
+    private long reloads = 0;
+
+    @Override
+    public void onBeforeCallgraphConstruction() {
+    }
+
+    @Override
+    public synchronized void onAfterCallgraphConstruction() {
+        ReachableMethods reachableMethods = Scene.v().getReachableMethods();
+        for (SootClass libraryClass : new ArrayList<>(Scene.v().getLibraryClasses())) {
+            for (SootMethod method : new ArrayList<>(libraryClass.getMethods())) {
+                if (method.hasActiveBody() && method.isConcrete() && !reachableMethods.contains(method))
+                    release(method);
+            }
+        }
+
+        logger.info("Released {} unreachable library method bodies with {} statements",
+                releasedBodies, releasedStatements);
+    }
+
+    private void release(SootMethod method) {
+        MethodSource source = method.getSource();
+        if (!(source instanceof ReloadingMethodSource))
+            source = new ReloadingMethodSource(source);
+
+        releasedStatements += method.getActiveBody().getUnits().size();
+        method.releaseActiveBody();
+        method.setSource(source);
+        releasedBodies++;
+    }
+
+    /**
+     * Read the declaring class again into a scratch class and take the method
+     * source of the matching method from it
+     * <p>
+     * The scratch class has a different name: creating a SootClass re-points the
+     * global RefType of its name, which must keep referring to the Scene class.
+     * The bytecode reader only warns about the name mismatch, and the method
+     * source builds the body for the method it is asked for.
+     */
+    private MethodSource freshMethodSource(SootMethod method) {
+        String className = method.getDeclaringClass().getName();
+        ClassSource classSource = SourceLocator.v().getClassSource(className);
+        if (classSource == null)
+            return null;
+
+        try {
+            SootClass scratch = new SootClass(SCRATCH_PREFIX + className);
+            classSource.resolve(scratch);
+            SootMethod fresh = scratch.getMethodUnsafe(method.getSubSignature());
+            return fresh == null ? null : fresh.getSource();
+        } finally {
+            classSource.close();
+        }
+    }
+
+    public synchronized int getReleasedBodies() {
+        return releasedBodies;
+    }
+
+    public synchronized long getReleasedStatements() {
+        return releasedStatements;
+    }
+
+    /**
+     * @return number of released bodies that were asked for again
+     */
+    public synchronized long getReloads() {
+        return reloads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d bodies with %d statements released, %d reloaded",
+                releasedBodies, releasedStatements, reloads);
+    }
+}
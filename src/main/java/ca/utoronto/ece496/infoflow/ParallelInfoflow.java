@@ -0,0 +1,75 @@
+package ca.utoronto.ece496.infoflow;
+
+import soot.jimple.infoflow.Infoflow;
+import soot.jimple.infoflow.solver.executors.InterruptableExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Infoflow running its solvers on {@link WorkStealingExecutor}s
+ * <p>
+ * Thread count is the one Infoflow derives from the configuration (max thread
+ * setting, capped at the available processors), unless it is set explicitly
+ * with {@link #setThreadCount}, e.g. for scaling experiments beyond the core
+ * count. The executors of the last run (taint and alias solver) are kept for
+ * their utilization statistics.
+ */
+public class ParallelInfoflow extends Infoflow {
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final int batchSize;
+    private int threadCount = 0;
+    private final List<WorkStealingExecutor> executors = Collections.synchronizedList(new ArrayList<>());
+
+    public ParallelInfoflow() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize number of edge propagation tasks a worker collects before publishing them
+     */
+    public ParallelInfoflow(int batchSize) {
+        super();
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The work-stealing pool has no set semantics, a task scheduled twice is
+     * simply run twice, which the solvers tolerate as path edges are deduplicated
+     */
+    @Override
+    protected InterruptableExecutor createExecutor(int numThreads, boolean allowSetSemantics) {
+        int threads = threadCount > 0 ? threadCount : numThreads;
+
+        WorkStealingExecutor executor = new WorkStealingExecutor(threads, batchSize);
+        executors.add(executor);
+        return executor;
+    }
+
+    /**
+     * @param threadCount number of worker threads regardless of the configuration, 0 to derive it from the configuration
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return executors created by the solvers so far
+     */
+    public List<WorkStealingExecutor> getExecutors() {
+        return new ArrayList<>(executors);
+    }
+
+    /**
+     * @return utilization statistics of all executors
+     */
+    public String formatExecutorStatistics() {
+        StringBuilder sb = new StringBuilder();
+        for (WorkStealingExecutor executor : getExecutors()) {
+            sb.append(executor.formatStatistics());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,223 @@
+package ca.utoronto.ece496.infoflow;
+
+import soot.jimple.infoflow.solver.executors.InterruptableExecutor;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solver executor on top of a work-stealing {@link ForkJoinPool}
+ * <p>
+ * Edge propagation tasks scheduled from a worker thread are collected in a
+ * batch local to that thread and pushed onto the worker's own deque once the
+ * batch is full or the current batch is done. Idle workers steal whole batches
+ * from the other deques, so one big dummy main keeps all cores busy without
+ * every task going through a single shared queue.
+ * <p>
+ * The underlying ThreadPoolExecutor of {@link InterruptableExecutor} is never
+ * started, it is only kept for the type the solvers expect.
+ */
+public class WorkStealingExecutor extends InterruptableExecutor {
+    /**
+     * Busy time and task counts of one worker thread
+     */
+    public static class ThreadStatistics {
+        private final String threadName;
+        private volatile long busyNanos = 0;
+        private volatile long tasks = 0;
+        private volatile long batches = 0;
+
+        ThreadStatistics(String threadName) {
+            this.threadName = threadName;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public long getTasks() {
+            return tasks;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+    }
+
+    /**
+     * A batch of solver tasks run one after another on the same worker
+     */
+    private class BatchTask extends RecursiveAction {
+        private final List<Runnable> tasks;
+
+        BatchTask(List<Runnable> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            ThreadStatistics stats = statistics.computeIfAbsent(Thread.currentThread(),
+                    thread -> new ThreadStatistics(thread.getName()));
+            long start = System.nanoTime();
+
+            for (Runnable task : tasks) {
+                if (cancelled)
+                    break;
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    if (exception == null)
+                        exception = t;
+                    cancelled = true;
+                }
+            }
+
+            stats.busyNanos += System.nanoTime() - start;
+            stats.tasks += tasks.size();
+            stats.batches++;
+
+            // tasks spawned by this batch are already counted, so pending can not drop to 0 early
+            flushLocalBatch();
+            if (pending.addAndGet(-tasks.size()) == 0 || cancelled) {
+                synchronized (completionLock) {
+                    completionLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final AtomicLong pending = new AtomicLong();
+    private final Object completionLock = new Object();
+    private final ThreadLocal<List<Runnable>> localBatch = ThreadLocal.withInitial(ArrayList::new);
+    private final Map<Thread, ThreadStatistics> statistics = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    private volatile boolean cancelled = false;
+    private volatile Throwable exception = null;
+
+    /**
+     * @param numThreads parallelism of the pool
+     * @param batchSize  number of tasks a worker collects before publishing them for stealing
+     */
+    public WorkStealingExecutor(int numThreads, int batchSize) {
+        super(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        this.pool = new ForkJoinPool(numThreads);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pending.incrementAndGet();
+
+        if (ForkJoinTask.getPool() == pool) {
+            List<Runnable> batch = localBatch.get();
+            batch.add(command);
+            if (batch.size() >= batchSize)
+                flushLocalBatch();
+        } else {
+            pool.execute(new BatchTask(Collections.singletonList(command)));
+        }
+    }
+
+    /**
+     * Push the tasks collected by the current worker onto its own deque
+     */
+    private void flushLocalBatch() {
+        List<Runnable> batch = localBatch.get();
+        if (batch.isEmpty())
+            return;
+
+        localBatch.set(new ArrayList<>());
+        new BatchTask(batch).fork();
+    }
+
+    @Override
+    public void awaitCompletion() throws InterruptedException {
+        synchronized (completionLock) {
+            while (pending.get() > 0 && !cancelled) {
+                completionLock.wait();
+            }
+        }
+    }
+
+    @Override
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (completionLock) {
+            while (pending.get() > 0 && !cancelled) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(completionLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Throwable getException() {
+        return exception;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        pool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        cancelled = true;
+        synchronized (completionLock) {
+            completionLock.notifyAll();
+        }
+        List<Runnable> remaining = new ArrayList<>(super.shutdownNow());
+        remaining.addAll(pool.shutdownNow());
+        return remaining;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return super.isTerminated() && pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return super.awaitTermination(timeout, unit) && pool.awaitTermination(timeout, unit);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public long getStealCount() {
+        return pool.getStealCount();
+    }
+
+    public Collection<ThreadStatistics> getThreadStatistics() {
+        return Collections.unmodifiableCollection(statistics.values());
+    }
+
+    /**
+     * @return one line per worker with its share of busy time since the executor was created
+     */
+    public String formatStatistics() {
+        long wallNanos = System.nanoTime() - startNanos;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d threads, %d steals, %.1f ms wall time%n",
+                getParallelism(), getStealCount(), wallNanos / 1e6));
+        for (ThreadStatistics stats : statistics.values()) {
+            sb.append(String.format("  %s: %d tasks in %d batches, %.1f%% busy%n",
+                    stats.getThreadName(), stats.getTasks(), stats.getBatches(),
+                    100.0 * stats.getBusyNanos() / wallNanos));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,279 @@
+package ca.utoronto.ece496.results;
+
+import soot.jimple.Stmt;
+import soot.jimple.infoflow.data.AccessPath;
+import soot.jimple.infoflow.results.InfoflowResults;
+import soot.jimple.infoflow.results.ResultSinkInfo;
+import soot.jimple.infoflow.results.ResultSourceInfo;
+
+import java.util.*;
+
+/**
+ * Compact storage for the paths reconstructed with
+ * {@link soot.jimple.infoflow.InfoflowConfiguration.PathReconstructionMode#Precise}
+ * <p>
+ * FlowDroid keeps a separate statement array for every result, although most
+ * paths run through the same service and DAO layers on their way to a sink.
+ * Here every path is cut into segments at content-defined boundaries (a
+ * statement ends a segment if its hash has {@link #BOUNDARY_BITS} low zero
+ * bits), so the same run of statements is cut the same way in every path that
+ * contains it. Segments are interned, and a path is a hash-consed linked list
+ * of segment nodes built from the sink backwards: paths share the segments of
+ * any common part, and additionally the nodes of a common suffix.
+ * <p>
+ * The DAG is copied out of finished results, FlowDroid still builds all arrays
+ * during path reconstruction, so only the memory held afterwards goes down,
+ * not the peak.
+ */
+public class TaintPathDag implements Iterable<TaintPathDag.TaintPath> {
+    /**
+     * Segments are about 2^BOUNDARY_BITS statements long on average
+     */
+    private static final int BOUNDARY_BITS = 3;
+    private static final int MAX_SEGMENT_LENGTH = 64;
+
+    /**
+     * Interned run of statements
+     */
+    private static final class Segment {
+        private final Stmt[] stmts;
+        private final int hash;
+
+        private Segment(Stmt[] stmts) {
+            this.stmts = stmts;
+            int h = 1;
+            for (Stmt stmt : stmts) {
+                h = 31 * h + System.identityHashCode(stmt);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Segment)) return false;
+            Segment segment = (Segment) o;
+            if (hash != segment.hash || stmts.length != segment.stmts.length)
+                return false;
+            for (int i = 0; i < stmts.length; i++) {
+                if (stmts[i] != segment.stmts[i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A segment followed by the (shared) rest of the path
+     */
+    private static final class Node {
+        private final Segment segment;
+        private final Node next;
+
+        private Node(Segment segment, Node next) {
+            this.segment = segment;
+            this.next = next;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Node)) return false;
+            // segments and children are interned, so identity is structural equality here
+            Node node = (Node) o;
+            return segment == node.segment && next == node.next;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(segment) + System.identityHashCode(next);
+        }
+    }
+
+    /**
+     * One source-to-sink path, walked from the source to the sink
+     */
+    public static final class TaintPath implements Iterable<Stmt> {
+        private final ResultSinkInfo sink;
+        private final Stmt sourceStmt;
+        private final AccessPath sourceAccessPath;
+        private final Node head;
+        private final int length;
+
+        private TaintPath(ResultSinkInfo sink, Stmt sourceStmt, AccessPath sourceAccessPath, Node head, int length) {
+            this.sink = sink;
+            this.sourceStmt = sourceStmt;
+            this.sourceAccessPath = sourceAccessPath;
+            this.head = head;
+            this.length = length;
+        }
+
+        public ResultSinkInfo getSink() {
+            return sink;
+        }
+
+        public Stmt getSourceStmt() {
+            return sourceStmt;
+        }
+
+        public AccessPath getSourceAccessPath() {
+            return sourceAccessPath;
+        }
+
+        /**
+         * @return number of statements on the path
+         */
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public Iterator<Stmt> iterator() {
+            return new Iterator<Stmt>() {
+                private Node current = head;
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return current != null;
+                }
+
+                @Override
+                public Stmt next() {
+                    if (current == null)
+                        throw new NoSuchElementException();
+                    Stmt stmt = current.segment.stmts[index++];
+                    if (index == current.segment.stmts.length) {
+                        current = current.next;
+                        index = 0;
+                    }
+                    return stmt;
+                }
+            };
+        }
+    }
+
+    private final List<TaintPath> paths = new ArrayList<>();
+    private long statementCount = 0;
+    private int segmentCount = 0;
+    private long segmentStatementCount = 0;
+    private int nodeCount = 0;
+
+    private TaintPathDag() {
+    }
+
+    /**
+     * Copy all paths out of the results
+     * <p>
+     * The DAG references neither the path arrays nor the path abstractions of the
+     * results, so they can be garbage collected once the caller drops the
+     * {@link InfoflowResults}
+     */
+    public static TaintPathDag fromResults(InfoflowResults results) {
+        TaintPathDag dag = new TaintPathDag();
+        if (results == null || results.getResults() == null)
+            return dag;
+
+        // only needed while building, the nodes themselves hold the structure
+        Map<Segment, Segment> segments = new HashMap<>();
+        Map<Node, Node> nodes = new HashMap<>();
+        for (ResultSinkInfo sink : results.getResults().keySet()) {
+            for (ResultSourceInfo source : results.getResults().get(sink)) {
+                dag.add(segments, nodes, sink, source.getStmt(), source.getAccessPath(), source.getPath());
+            }
+        }
+        dag.segmentCount = segments.size();
+        for (Segment segment : segments.keySet()) {
+            dag.segmentStatementCount += segment.stmts.length;
+        }
+        dag.nodeCount = nodes.size();
+        return dag;
+    }
+
+    /**
+     * @param path statements from source to sink, null if no path was reconstructed
+     */
+    private void add(Map<Segment, Segment> segments, Map<Node, Node> nodes,
+                     ResultSinkInfo sink, Stmt sourceStmt, AccessPath sourceAccessPath, Stmt[] path) {
+        Node head = null;
+        int length = 0;
+        if (path != null) {
+            List<Segment> pathSegments = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < path.length; i++) {
+                if (i + 1 == path.length || i + 1 - start == MAX_SEGMENT_LENGTH || isBoundary(path[i])) {
+                    Segment segment = new Segment(Arrays.copyOfRange(path, start, i + 1));
+                    Segment existing = segments.putIfAbsent(segment, segment);
+                    pathSegments.add(existing == null ? segment : existing);
+                    start = i + 1;
+                }
+            }
+
+            for (int i = pathSegments.size() - 1; i >= 0; i--) {
+                Node node = new Node(pathSegments.get(i), head);
+                Node existing = nodes.putIfAbsent(node, node);
+                head = existing == null ? node : existing;
+            }
+            length = path.length;
+        }
+
+        paths.add(new TaintPath(sink, sourceStmt, sourceAccessPath, head, length));
+        statementCount += length;
+    }
+
+    /**
+     * Content-defined cut point, depends only on the statement itself
+     */
+    private static boolean isBoundary(Stmt stmt) {
+        int h = System.identityHashCode(stmt) * 0x9e3779b9;
+        return (h >>> (32 - BOUNDARY_BITS)) == 0;
+    }
+
+    @Override
+    public Iterator<TaintPath> iterator() {
+        return Collections.unmodifiableList(paths).iterator();
+    }
+
+    public int getPathCount() {
+        return paths.size();
+    }
+
+    /**
+     * @return total number of statements over all paths, i.e. what separate arrays would store
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * @return number of distinct segments
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return number of statements actually stored in segments
+     */
+    public long getSegmentStatementCount() {
+        return segmentStatementCount;
+    }
+
+    /**
+     * @return number of distinct nodes linking the segments
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d paths, %d statements stored as %d statements in %d shared segments linked by %d nodes",
+                getPathCount(), getStatementCount(), getSegmentStatementCount(), getSegmentCount(), getNodeCount());
+    }
+}
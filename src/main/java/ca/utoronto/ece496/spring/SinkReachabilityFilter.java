@@ -0,0 +1,242 @@
+package ca.utoronto.ece496.spring;
+
+import ca.utoronto.ece496.utils.SootUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.*;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.*;
+
+/**
+ * Cheap reachability pass that runs before the dummy main is generated.
+ * <p>
+ * An entry point is kept if one of its transitive callees is a sink method,
+ * or if it writes a field that is read by another kept entry point (the taint
+ * could be stored in that state by one request and leaked by another one).
+ * If the dummy main passes return values to the default sink, an entry point
+ * taking a tainted param, reading any field or calling a source is kept too.
+ * All other entry points can never produce a flow and are skipped.
+ * <p>
+ * Callees are resolved from the given call graph if there is one, otherwise
+ * with class hierarchy analysis over the method bodies.
+ */
+public class SinkReachabilityFilter {
+    private static final Logger logger = LoggerFactory.getLogger(SinkReachabilityFilter.class);
+
+    /**
+     * Direct effects of a single method body, computed once per method
+     */
+    private static class MethodFootprint {
+        Set<SootMethod> callees = new HashSet<>();
+        Set<SootField> fieldsRead = new HashSet<>();
+        Set<SootField> fieldsWritten = new HashSet<>();
+        boolean callsSink = false;
+        boolean callsSource = false;
+    }
+
+    /**
+     * Transitive effects of an entry point
+     */
+    private static class EntryPointFootprint {
+        Set<SootField> fieldsRead = new HashSet<>();
+        Set<SootField> fieldsWritten = new HashSet<>();
+        boolean reachesSink = false;
+        boolean reachesSource = false;
+    }
+
+    private final Set<String> sourceSignatures;
+    private final Set<String> sinkSignatures;
+    private final boolean returnValueIsSink;
+    private final CallGraph callGraph;
+
+    private final Map<SootMethod, MethodFootprint> footprints = new HashMap<>();
+    private final Map<String, String> skippedEntryPoints = new LinkedHashMap<>();
+
+    /**
+     * @param sourceSignatures soot-style signatures of all source methods
+     * @param sinkSignatures   soot-style signatures of all sink methods
+     * @param callGraph        call graph used to resolve callees, null to use CHA
+     */
+    public SinkReachabilityFilter(Collection<String> sourceSignatures, Collection<String> sinkSignatures, CallGraph callGraph) {
+        this.sourceSignatures = new HashSet<>(sourceSignatures);
+        this.sinkSignatures = new HashSet<>(sinkSignatures);
+        this.callGraph = callGraph;
+        // the dummy main passes the return value of every entry point to the default sink
+        this.returnValueIsSink = this.sinkSignatures.contains(SpringAppEntryPointCreator.getDefaultSinkSignature());
+    }
+
+    public SinkReachabilityFilter(Collection<String> sourceSignatures, Collection<String> sinkSignatures) {
+        this(sourceSignatures, sinkSignatures, null);
+    }
+
+    /**
+     * Filter out entry points that can not reach any sink
+     *
+     * @param entryPoints candidate entry points
+     * @return entry points that have to be analyzed, in the original order
+     */
+    public List<SootMethod> filter(Collection<SootMethod> entryPoints) {
+        Map<SootMethod, EntryPointFootprint> entryFootprints = new LinkedHashMap<>();
+        for (SootMethod entryPoint : entryPoints) {
+            entryFootprints.put(entryPoint, computeEntryPointFootprint(entryPoint));
+        }
+
+        Set<SootMethod> kept = new HashSet<>();
+        Set<SootField> relevantReads = new HashSet<>();
+        for (Map.Entry<SootMethod, EntryPointFootprint> entry : entryFootprints.entrySet()) {
+            if (entry.getValue().reachesSink) {
+                kept.add(entry.getKey());
+                relevantReads.addAll(entry.getValue().fieldsRead);
+            }
+        }
+
+        // writers of relevant state are kept as well, their own reads then become relevant
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<SootMethod, EntryPointFootprint> entry : entryFootprints.entrySet()) {
+                if (kept.contains(entry.getKey()))
+                    continue;
+
+                if (!Collections.disjoint(entry.getValue().fieldsWritten, relevantReads)) {
+                    kept.add(entry.getKey());
+                    relevantReads.addAll(entry.getValue().fieldsRead);
+                    changed = true;
+                }
+            }
+        }
+
+        List<SootMethod> result = new ArrayList<>();
+        for (SootMethod entryPoint : entryFootprints.keySet()) {
+            if (kept.contains(entryPoint)) {
+                result.add(entryPoint);
+            } else {
+                skippedEntryPoints.put(entryPoint.getSignature(), "no sink reachable and no state read by a sink-reaching entry point");
+            }
+        }
+
+        logger.info("Sink reachability filter kept {} of {} entry points", result.size(), entryFootprints.size());
+        for (String skipped : skippedEntryPoints.keySet()) {
+            logger.info("Skipped entry point: {}", skipped);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return signatures of the entry points dropped by the last filter run, with the reason
+     */
+    public Map<String, String> getSkippedEntryPoints() {
+        return Collections.unmodifiableMap(skippedEntryPoints);
+    }
+
+    private EntryPointFootprint computeEntryPointFootprint(SootMethod entryPoint) {
+        EntryPointFootprint result = new EntryPointFootprint();
+
+        if (returnValueIsSink) {
+            // a tainted String or request param may end up in the return value
+            for (Type tp : entryPoint.getParameterTypes()) {
+                if (tp.toString().equals("java.lang.String") || SyntheticRequestModels.MODELED_TYPES.contains(tp.toString()))
+                    result.reachesSink = true;
+            }
+        }
+
+        Set<SootMethod> visited = new HashSet<>();
+        Deque<SootMethod> worklist = new ArrayDeque<>();
+        worklist.add(entryPoint);
+        while (!worklist.isEmpty()) {
+            SootMethod method = worklist.poll();
+            if (!visited.add(method))
+                continue;
+
+            MethodFootprint footprint = getFootprint(method);
+            result.reachesSink |= footprint.callsSink;
+            result.reachesSource |= footprint.callsSource;
+            result.fieldsRead.addAll(footprint.fieldsRead);
+            result.fieldsWritten.addAll(footprint.fieldsWritten);
+            worklist.addAll(footprint.callees);
+        }
+
+        // so may any state read or the result of a source
+        if (returnValueIsSink && (result.reachesSource || !result.fieldsRead.isEmpty()))
+            result.reachesSink = true;
+
+        return result;
+    }
+
+    private MethodFootprint getFootprint(SootMethod method) {
+        MethodFootprint footprint = footprints.get(method);
+        if (footprint != null)
+            return footprint;
+
+        footprint = new MethodFootprint();
+        footprints.put(method, footprint);
+
+        if (!method.isConcrete())
+            return footprint;
+
+        Body body;
+        try {
+            body = method.retrieveActiveBody();
+        } catch (RuntimeException e) {
+            logger.debug("Cannot retrieve body of {}", method);
+            return footprint;
+        }
+
+        for (Unit unit : body.getUnits()) {
+            Stmt stmt = (Stmt) unit;
+
+            SootField field = stmt.containsFieldRef() ? resolveField(stmt.getFieldRef()) : null;
+            if (field != null) {
+                if (stmt instanceof AssignStmt && ((AssignStmt) stmt).getLeftOp() instanceof FieldRef)
+                    footprint.fieldsWritten.add(field);
+                else
+                    footprint.fieldsRead.add(field);
+            }
+
+            if (!stmt.containsInvokeExpr())
+                continue;
+
+            InvokeExpr invokeExpr = stmt.getInvokeExpr();
+            addCallee(footprint, invokeExpr.getMethodRef().getSignature(), null);
+
+            if (callGraph != null) {
+                Iterator<Edge> edges = callGraph.edgesOutOf(stmt);
+                while (edges.hasNext()) {
+                    SootMethod target = edges.next().tgt();
+                    addCallee(footprint, target.getSignature(), target);
+                }
+            } else {
+                for (SootMethod callee : SootUtil.getCHACallees(invokeExpr)) {
+                    addCallee(footprint, callee.getSignature(), callee);
+                }
+            }
+        }
+
+        return footprint;
+    }
+
+    /**
+     * @param callee resolved callee, null if only the signature of the call is known
+     */
+    private void addCallee(MethodFootprint footprint, String signature, SootMethod callee) {
+        if (sinkSignatures.contains(signature))
+            footprint.callsSink = true;
+        if (sourceSignatures.contains(signature))
+            footprint.callsSource = true;
+        if (callee != null)
+            footprint.callees.add(callee);
+    }
+
+    private static SootField resolveField(FieldRef fieldRef) {
+        try {
+            return fieldRef.getField();
+        } catch (RuntimeException e) {
+            // field missing from the (phantom) declaring class
+            return null;
+        }
+    }
+}
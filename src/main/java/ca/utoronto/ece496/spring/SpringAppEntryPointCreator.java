@@ -2,7 +2,6 @@ package ca.utoronto.ece496.spring;
 
 import ca.utoronto.ece496.utils.GeneralUtil;
 import ca.utoronto.ece496.utils.SootUtil;
-import javafx.util.Pair;
 import soot.*;
 import soot.javaToJimple.LocalGenerator;
 import soot.jimple.*;
@@ -45,6 +44,44 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
          */
         public String defaultSinkPoint = "<java.io.PrintStream: void println(java.lang.String)>";
 
+        /**
+         * Drop entry points that can not reach any of {@link #sinks} before
+         * generating the dummy main, see {@link SinkReachabilityFilter}.
+         * Requires {@link #sources} and {@link #sinks} to be set
+         */
+        public boolean pruneEntryPointsWithoutSinks = false;
+
+        /**
+         * Full soot-style source signatures used by the reachability pre-filter,
+         * the same source list passed to computeInfoflow
+         */
+        public Collection<String> sources = Collections.emptyList();
+
+        /**
+         * Full soot-style sink signatures used by the reachability pre-filter,
+         * the same sink list passed to computeInfoflow
+         */
+        public Collection<String> sinks = Collections.emptyList();
+
+        /**
+         * Pass small generated stubs for servlet and Spring request parameter types
+         * (see {@link SyntheticRequestModels#MODELED_TYPES}) instead of constructing
+         * their real implementations
+         */
+        public boolean useSyntheticRequestModels = true;
+
+        /**
+         * Build one instance per non-String parameter type before the dispatch
+         * loop and pass it to every entry point taking that type, instead of
+         * constructing a fresh object graph at each call site
+         * <p>
+         * Spring binds a fresh object per request, so this is an over-approximation:
+         * taint one handler stores into a shared param (e.g. a form field it sets)
+         * becomes visible to every other handler taking that type, which adds
+         * spurious cross-handler flows
+         */
+        public boolean shareParameterInstances = false;
+
         /**
          * Restricted only for testing purpose
          * defaultTaintSource and defaultSinkPoint are supposed to be overridden by external info
@@ -62,6 +99,18 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
 
     private AnalysisConfig config = new AnalysisConfig();
 
+    private Map<String, String> skippedEntryPoints = Collections.emptyMap();
+
+    private SyntheticRequestModels requestModels;
+
+    private Map<Type, Value> sharedParameterValues = Collections.emptyMap();
+
+    private Map<Stmt, SootMethod> entryPointCallSites = new HashMap<>();
+    private Map<Stmt, SootMethod> entryPointSinkCalls = new HashMap<>();
+
+    private int dummyMainUnitCount = 0;
+    private int dummyMainLocalCount = 0;
+
     /**
      * Following names are reserved and should not appear in the user's program
      * By starting those names with "_", they shall have min possibility to also
@@ -104,7 +153,76 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
         ));
     }
 
-    private Pair<SootClass, SootMethod> parseSootMethodString(String methodString) {
+    /**
+     * @return entry points dropped by the sink reachability pre-filter, with the reason
+     */
+    public Map<String, String> getSkippedEntryPoints() {
+        return skippedEntryPoints;
+    }
+
+    /**
+     * @return statements in the dummy main invoking an entry point, mapped to the entry point
+     */
+    public Map<Stmt, SootMethod> getEntryPointCallSites() {
+        return entryPointCallSites;
+    }
+
+    /**
+     * @return default sink calls in the dummy main, mapped to the entry point whose return value they consume
+     */
+    public Map<Stmt, SootMethod> getEntryPointSinkCalls() {
+        return entryPointSinkCalls;
+    }
+
+    /**
+     * @return number of units in the last generated dummy main, to compare generation options
+     */
+    public int getDummyMainUnitCount() {
+        return dummyMainUnitCount;
+    }
+
+    /**
+     * @return number of locals in the last generated dummy main
+     */
+    public int getDummyMainLocalCount() {
+        return dummyMainLocalCount;
+    }
+
+    /**
+     * Run the sink reachability pre-filter on the entry points
+     *
+     * @param entryPoints full soot-style signatures of the entry points
+     * @return signatures of entry points that can reach a sink
+     */
+    private List<String> filterEntryPoints(List<String> entryPoints) {
+        // with no sinks every entry point would be dropped
+        if (config.sources.isEmpty() || config.sinks.isEmpty())
+            throw new IllegalStateException("pruneEntryPointsWithoutSinks needs the sources and sinks "
+                    + "passed to computeInfoflow in AnalysisConfig.sources and AnalysisConfig.sinks");
+
+        Map<SootMethod, String> candidates = new LinkedHashMap<>();
+        List<String> result = new ArrayList<>();
+        for (String entryPoint : entryPoints) {
+            SootMethod method = parseSootMethodString(entryPoint).getValue();
+            if (method == null) {
+                // leave it to the main loop to report
+                result.add(entryPoint);
+                continue;
+            }
+            candidates.put(method, entryPoint);
+        }
+
+        // the dummy main is built before the call graph, so callees are resolved with CHA
+        SinkReachabilityFilter filter = new SinkReachabilityFilter(config.sources, config.sinks);
+        for (SootMethod method : filter.filter(candidates.keySet())) {
+            result.add(candidates.get(method));
+        }
+        skippedEntryPoints = filter.getSkippedEntryPoints();
+
+        return result;
+    }
+
+    private Map.Entry<SootClass, SootMethod> parseSootMethodString(String methodString) {
         SootMethodAndClass sootMethodAndClass = SootMethodRepresentationParser.v().parseSootMethodString(methodString);
         String className = sootMethodAndClass.getClassName();
 
@@ -122,7 +240,7 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
         SootMethod sootMethod = findMethod(sootClass, sootMethodAndClass.getSubSignature());
         assert sootMethod != null;
 
-        return new Pair<>(
+        return new AbstractMap.SimpleImmutableEntry<>(
                 sootClass,
                 sootMethod
         );
@@ -157,9 +275,14 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
         SootClass dummyClass = createDummySourceSink(dummyClassName, dummySourceName, dummySinkName);
         SootMethod sourceMethod = dummyClass.getMethodByName(dummySourceName);
         SootMethod sinkMethod = dummyClass.getMethodByName(dummySinkName);
+        requestModels = new SyntheticRequestModels(sourceMethod);
+
+        List<String> entryPoints = methodsToCall;
+        if (config.pruneEntryPointsWithoutSinks)
+            entryPoints = filterEntryPoints(methodsToCall);
 
         Map<String, Set<String>> classMap =
-                SootMethodRepresentationParser.v().parseClassNames(methodsToCall, false);
+                SootMethodRepresentationParser.v().parseClassNames(entryPoints, false);
 
         ArrayType stringArrayType = ArrayType.v(RefType.v("java.lang.String"), 1);
         SootMethod dummyMain = new SootMethod(
@@ -184,7 +307,7 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
         Local defaultTaintSource = generator.generateLocal(RefType.v("java.lang.String"));
 
         // String defaultSource = dummyClass.dummySource();
-        InvokeExpr invokeExpr = buildInvokeExpr(sourceMethod, null, generator, null);
+        InvokeExpr invokeExpr = buildInvokeExpr(sourceMethod, null, body, generator, null);
         Stmt stmt = Jimple.v().newAssignStmt(defaultTaintSource, invokeExpr);
         body.getUnits().add(stmt);
 
@@ -205,6 +328,14 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
             localVarsForClasses.put(className, localVal);
         }
 
+        entryPointCallSites = new HashMap<>();
+        entryPointSinkCalls = new HashMap<>();
+
+        // create shared param values ahead of the dispatch loop so that they dominate every call
+        sharedParameterValues = new HashMap<>();
+        if (config.shareParameterInstances)
+            createSharedParameterValues(classMap, body, generator);
+
         // add entry point calls
         // the following are same as DefaultEntryPointCreator
         // where methods are simulated to be called in a random order
@@ -218,7 +349,7 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
             Local classLocal = localVarsForClasses.get(entry.getKey());
             for (String method : entry.getValue()) {
 
-                Pair<SootClass, SootMethod> methodPair = parseSootMethodString(method);
+                Map.Entry<SootClass, SootMethod> methodPair = parseSootMethodString(method);
                 SootMethod currentMethod = methodPair.getValue();
 
                 if (currentMethod == null) {
@@ -238,13 +369,17 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
                 body.getUnits().add(ifStmt);
 
                 // Invoke the method
-                InvokeExpr methodInvocation = buildInvokeExpr(currentMethod, classLocal, generator, defaultTaintSource);
+                InvokeExpr methodInvocation = buildInvokeExpr(currentMethod, classLocal, body, generator, defaultTaintSource);
                 Local returnLocal = generator.generateLocal(currentMethod.getReturnType());
-                body.getUnits().add(Jimple.v().newAssignStmt(returnLocal, methodInvocation));
+                Stmt callStmt = Jimple.v().newAssignStmt(returnLocal, methodInvocation);
+                body.getUnits().add(callStmt);
+                entryPointCallSites.put(callStmt, currentMethod);
 
                 // pass the return value to sink point
-                InvokeExpr sinkInvocation = buildInvokeExpr(sinkMethod, null, generator, returnLocal);
-                body.getUnits().add(Jimple.v().newInvokeStmt(sinkInvocation));
+                InvokeExpr sinkInvocation = buildInvokeExpr(sinkMethod, null, body, generator, returnLocal);
+                Stmt sinkStmt = Jimple.v().newInvokeStmt(sinkInvocation);
+                body.getUnits().add(sinkStmt);
+                entryPointSinkCalls.put(sinkStmt, currentMethod);
 
                 body.getUnits().add(thenStmt);
             }
@@ -258,6 +393,11 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
         NopEliminator.v().transform(body);
         eliminateSelfLoops(body);
 
+        dummyMainUnitCount = body.getUnits().size();
+        dummyMainLocalCount = body.getLocalCount();
+        logger.info("Dummy main generated with {} units and {} locals ({} shared param values)",
+                dummyMainUnitCount, dummyMainLocalCount, sharedParameterValues.size());
+
         // Initialize wrapper main
         Body wrapperBody = mainMethod.getActiveBody();
         buildMethodCall(dummyMain, wrapperBody, null, new LocalGenerator(wrapperBody));
@@ -266,8 +406,53 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
         return mainMethod;
     }
 
-    private InvokeExpr buildInvokeExpr(SootMethod methodToCall, Local classLocal, LocalGenerator gen, Value defaultTaint) {
-        return buildInvokeExpr(methodToCall, classLocal, gen, defaultTaint, Collections.emptySet());
+    private void createSharedParameterValues(Map<String, Set<String>> classMap, Body body, LocalGenerator gen) {
+        for (Set<String> methods : classMap.values()) {
+            for (String method : methods) {
+                SootMethod currentMethod = parseSootMethodString(method).getValue();
+                if (currentMethod == null)
+                    continue;
+
+                for (Type tp : currentMethod.getParameterTypes()) {
+                    if (tp.toString().equals("java.lang.String") || sharedParameterValues.containsKey(tp))
+                        continue;
+
+                    sharedParameterValues.put(tp, createParameterValue(currentMethod, tp, body, gen, Collections.emptySet()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the construction of a value for a non-String param to the body
+     *
+     * @param methodToCall method the value is passed to
+     * @param tp           param type
+     * @return generated value (a local, or a constant if no instance can be built)
+     */
+    private Value createParameterValue(SootMethod methodToCall, Type tp, Body body, LocalGenerator gen, Set<SootClass> parentClasses) {
+        if (config.useSyntheticRequestModels && requestModels.isModeled(tp)) {
+            Value stubValue = requestModels.newInstance(body, gen, (RefType) tp);
+            if (stubValue != null)
+                return stubValue;
+        }
+
+        Set<SootClass> constructionStack = new HashSet<>();
+        if (!GeneralUtil.<BaseEntryPointCreator, Boolean>accessField(
+                BaseEntryPointCreator.class, "allowSelfReferences", this
+        )) {
+            constructionStack.add(methodToCall.getDeclaringClass());
+        }
+
+        return GeneralUtil.invokeMethod(
+                BaseEntryPointCreator.class, "getValueForType",
+                Arrays.asList(Body.class, LocalGenerator.class, Type.class, Set.class, Set.class),
+                Arrays.asList(body, gen, tp, constructionStack, parentClasses),
+                this);
+    }
+
+    private InvokeExpr buildInvokeExpr(SootMethod methodToCall, Local classLocal, Body body, LocalGenerator gen, Value defaultTaint) {
+        return buildInvokeExpr(methodToCall, classLocal, body, gen, defaultTaint, Collections.emptySet());
     }
 
     /**
@@ -279,36 +464,27 @@ public class SpringAppEntryPointCreator extends BaseEntryPointCreator {
      *
      * @param methodToCall       SootMethod to call
      * @param classLocal         local variable on which the method is invoked on (null for static method)
+     * @param body               body the construction of param values is appended to
      * @param gen                Local variable generator
      * @param defaultStringParam default string param to be used for all string params
      * @param parentClasses      // N/A inherent from parent class
      * @return InvokeExpr
      */
     private InvokeExpr buildInvokeExpr(
-            SootMethod methodToCall, Local classLocal, LocalGenerator gen, Value defaultStringParam, Set<SootClass> parentClasses
+            SootMethod methodToCall, Local classLocal, Body body, LocalGenerator gen, Value defaultStringParam, Set<SootClass> parentClasses
     ) {
         final InvokeExpr invokeExpr;
         List<Value> args = new LinkedList<>();
 
         if (methodToCall.getParameterCount() > 0) {
             for (Type tp : methodToCall.getParameterTypes()) {
-                Set<SootClass> constructionStack = new HashSet<>();
-
-                if (!GeneralUtil.<BaseEntryPointCreator, Boolean>accessField(
-                        BaseEntryPointCreator.class, "allowSelfReferences", this
-                )) {
-                    constructionStack.add(methodToCall.getDeclaringClass());
-                }
-
                 if (tp.toString().equals("java.lang.String") && defaultStringParam != null) {
                     // Use defaultSource for String param
                     args.add(defaultStringParam);
+                } else if (sharedParameterValues.containsKey(tp)) {
+                    args.add(sharedParameterValues.get(tp));
                 } else {
-                    args.add(GeneralUtil.invokeMethod(
-                            super.getClass(), "getValueForType",
-                            Arrays.asList(Body.class, LocalGenerator.class, Type.class, Set.class, Set.class),
-                            Arrays.asList(body, gen, tp, constructionStack, parentClasses),
-                            this));
+                    args.add(createParameterValue(methodToCall, tp, body, gen, parentClasses));
                 }
             }
 
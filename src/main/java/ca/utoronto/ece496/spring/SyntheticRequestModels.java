@@ -0,0 +1,336 @@
+package ca.utoronto.ece496.spring;
+
+import ca.utoronto.ece496.utils.SootUtil;
+import soot.*;
+import soot.javaToJimple.LocalGenerator;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.ReturnStmt;
+
+import java.util.*;
+
+/**
+ * Small generated implementations of well-known handler parameter types
+ * <p>
+ * The default value generation of {@link soot.jimple.infoflow.entryPointCreators.BaseEntryPointCreator}
+ * picks a real implementation of an interface such as HttpServletRequest and
+ * constructs it, which pulls big parts of Tomcat and Spring into the Scene and
+ * the call graph. Instead, a stub class implementing the interface is generated.
+ * Its getters that expose request data return a value derived from the default
+ * taint source (see {@link #newTaintedValue}), getters of another modeled type
+ * (e.g. getSession) return a stub of that type, all other methods return a
+ * default value.
+ */
+class SyntheticRequestModels {
+    static final List<String> MODELED_TYPES = Arrays.asList(
+            "javax.servlet.http.HttpServletRequest",
+            "javax.servlet.http.HttpSession",
+            "org.springframework.ui.Model",
+            "java.security.Principal",
+            "org.springframework.web.multipart.MultipartFile"
+    );
+
+    /**
+     * Abstract classes returned by getters of the modeled types, stubbed the same way
+     */
+    private static final String SERVLET_INPUT_STREAM = "javax.servlet.ServletInputStream";
+
+    private static final String STUB_PREFIX = "_stub_";
+
+    private final SootMethod sourceMethod;
+    private final Map<String, SootClass> stubs = new HashMap<>();
+
+    /**
+     * @param sourceMethod static method without params returning a tainted String
+     */
+    SyntheticRequestModels(SootMethod sourceMethod) {
+        this.sourceMethod = sourceMethod;
+    }
+
+    boolean isModeled(Type tp) {
+        return tp instanceof RefType && MODELED_TYPES.contains(((RefType) tp).getClassName());
+    }
+
+    /**
+     * Append the construction of a stub instance to the body
+     *
+     * @return local holding the stub instance, null if the modeled type is not on the class path
+     */
+    Local newInstance(Body body, LocalGenerator gen, RefType tp) {
+        List<Unit> units = new ArrayList<>();
+        Local local = newStubInstance(tp.getClassName(), gen, units);
+        body.getUnits().addAll(units);
+        return local;
+    }
+
+    private Local newStubInstance(String typeName, LocalGenerator gen, List<Unit> units) {
+        SootClass stubClass = getStubClass(typeName);
+        if (stubClass == null)
+            return null;
+
+        Local local = gen.generateLocal(stubClass.getType());
+        units.add(Jimple.v().newAssignStmt(local, Jimple.v().newNewExpr(stubClass.getType())));
+        units.add(Jimple.v().newInvokeStmt(Jimple.v().newSpecialInvokeExpr(
+                local, stubClass.getMethod("<init>", Collections.emptyList()).makeRef()
+        )));
+        return local;
+    }
+
+    private SootClass getStubClass(String typeName) {
+        if (stubs.containsKey(typeName))
+            return stubs.get(typeName);
+
+        // signatures are enough, no implementation of the type gets loaded
+        SootClass modeledClass = Scene.v().forceResolve(typeName, SootClass.SIGNATURES);
+        if (modeledClass.isPhantom() || !(modeledClass.isInterface() || modeledClass.isAbstract())) {
+            stubs.put(typeName, null);
+            return null;
+        }
+
+        String stubName = STUB_PREFIX + typeName.replace('.', '_');
+        if (Scene.v().containsClass(stubName)) {
+            stubs.put(typeName, Scene.v().getSootClass(stubName));
+            return stubs.get(typeName);
+        }
+
+        SootClass stubClass = SootUtil.createClass(stubName, Collections.emptyList());
+        if (modeledClass.isInterface())
+            stubClass.addInterface(modeledClass);
+        else
+            stubClass.setSuperclass(modeledClass);
+        stubClass.setApplicationClass();
+        // registered before the methods are built, getters may return a stub of their own type
+        stubs.put(typeName, stubClass);
+
+        addConstructor(stubClass);
+        for (SootMethod abstractMethod : collectAbstractMethods(modeledClass)) {
+            SootMethod method = addMethod(stubClass, new SootMethod(
+                    abstractMethod.getName(), new ArrayList<>(abstractMethod.getParameterTypes()),
+                    abstractMethod.getReturnType(), Modifier.PUBLIC
+            ));
+            if (exposesRequestData(stubClass, method))
+                returnTaintedValue(method);
+        }
+
+        return stubClass;
+    }
+
+    /**
+     * Default constructor calling the no-arg constructor of the super class
+     */
+    private static void addConstructor(SootClass stubClass) {
+        SootMethod constructor = addMethod(stubClass,
+                new SootMethod("<init>", Collections.emptyList(), VoidType.v(), Modifier.PUBLIC));
+        Body body = constructor.getActiveBody();
+        SootMethodRef superConstructor = Scene.v().makeMethodRef(
+                stubClass.getSuperclass(), "<init>", Collections.emptyList(), VoidType.v(), false);
+        body.getUnits().insertBefore(
+                Jimple.v().newInvokeStmt(Jimple.v().newSpecialInvokeExpr(body.getThisLocal(), superConstructor)),
+                body.getUnits().getLast()
+        );
+    }
+
+    private static SootMethod addMethod(SootClass stubClass, SootMethod method) {
+        stubClass.addMethod(method);
+        return SootUtil.createEmptyMethod(method);
+    }
+
+    /**
+     * Abstract methods of the type and all its super types, one per sub-signature
+     */
+    private static Collection<SootMethod> collectAbstractMethods(SootClass type) {
+        Map<String, SootMethod> methods = new LinkedHashMap<>();
+        Set<String> implemented = new HashSet<>();
+        Deque<SootClass> worklist = new ArrayDeque<>();
+        worklist.add(type);
+        Set<SootClass> visited = new HashSet<>();
+        while (!worklist.isEmpty()) {
+            SootClass current = worklist.poll();
+            if (!visited.add(current))
+                continue;
+            // super types may only be resolved to HIERARCHY, which has no methods
+            current = Scene.v().forceResolve(current.getName(), SootClass.SIGNATURES);
+            if (current.isPhantom())
+                continue;
+
+            for (SootMethod method : current.getMethods()) {
+                if (method.isStatic())
+                    continue;
+                // an implementation in a sub class hides the abstract declaration
+                if (method.isAbstract() && !implemented.contains(method.getSubSignature()))
+                    methods.putIfAbsent(method.getSubSignature(), method);
+                else if (!method.isAbstract())
+                    implemented.add(method.getSubSignature());
+            }
+            worklist.addAll(current.getInterfaces());
+            if (current.hasSuperclass())
+                worklist.add(current.getSuperclass());
+        }
+        return methods.values();
+    }
+
+    /**
+     * Getters of request data (parameters, headers, body, attributes, uploaded
+     * content) and the read methods of a stubbed input stream
+     */
+    private boolean exposesRequestData(SootClass stubClass, SootMethod method) {
+        if (method.getName().startsWith("get"))
+            return isTaintable(method.getReturnType());
+        return method.getName().equals("read") && stubClass.getSuperclass().getName().equals(SERVLET_INPUT_STREAM)
+                && method.getReturnType() instanceof IntType;
+    }
+
+    private boolean isTaintable(Type type) {
+        if (type instanceof ArrayType) {
+            Type elementType = ((ArrayType) type).getElementType();
+            return elementType instanceof ByteType || elementType.toString().equals("java.lang.String");
+        }
+        if (!(type instanceof RefType))
+            return false;
+
+        String className = ((RefType) type).getClassName();
+        switch (className) {
+            case "java.lang.String":
+            case "java.lang.Object":
+            case "java.lang.CharSequence":
+            case "java.util.Map":
+            case "java.util.Enumeration":
+            case "java.util.Collection":
+            case "java.util.List":
+            case "java.io.BufferedReader":
+            case "java.io.Reader":
+            case "java.io.InputStream":
+            case SERVLET_INPUT_STREAM:
+                return true;
+            default:
+                return MODELED_TYPES.contains(className);
+        }
+    }
+
+    /**
+     * Replace the default return value of the method with a tainted value
+     */
+    private void returnTaintedValue(SootMethod method) {
+        Body body = method.getActiveBody();
+        ReturnStmt returnStmt = (ReturnStmt) body.getUnits().getLast();
+
+        List<Unit> units = new ArrayList<>();
+        Value value = newTaintedValue(method.getReturnType(), new LocalGenerator(body), units);
+        if (value == null)
+            return;
+
+        body.getUnits().insertBefore(units, returnStmt);
+        returnStmt.setOp(value);
+    }
+
+    /**
+     * Build a value of the type that carries the default taint source
+     * <ul>
+     * <li>String, Object: the source itself</li>
+     * <li>String[]: one element array</li>
+     * <li>byte[], int (stream read): the bytes of the source</li>
+     * <li>Map, Enumeration, Collection: one tainted entry (a String[] value for maps, as in getParameterMap)</li>
+     * <li>Reader, InputStream: reading the source</li>
+     * <li>modeled types and ServletInputStream: a stub instance</li>
+     * </ul>
+     *
+     * @param units receives the statements computing the value
+     * @return the value, null if the type is not supported
+     */
+    private Value newTaintedValue(Type type, LocalGenerator gen, List<Unit> units) {
+        Jimple jimple = Jimple.v();
+        RefType stringType = RefType.v("java.lang.String");
+
+        if (type instanceof IntType) {
+            Value bytes = newTaintedValue(ArrayType.v(ByteType.v(), 1), gen, units);
+            Local local = gen.generateLocal(IntType.v());
+            units.add(jimple.newAssignStmt(local, jimple.newArrayRef(bytes, IntConstant.v(0))));
+            return local;
+        }
+
+        if (type instanceof ArrayType) {
+            Type elementType = ((ArrayType) type).getElementType();
+            Local source = newSourceCall(gen, units);
+            Local local = gen.generateLocal(type);
+            if (elementType instanceof ByteType) {
+                units.add(jimple.newAssignStmt(local, jimple.newVirtualInvokeExpr(source,
+                        methodRef("java.lang.String", "getBytes", Collections.emptyList(), type))));
+            } else {
+                units.add(jimple.newAssignStmt(local, jimple.newNewArrayExpr(elementType, IntConstant.v(1))));
+                units.add(jimple.newAssignStmt(jimple.newArrayRef(local, IntConstant.v(0)), source));
+            }
+            return local;
+        }
+
+        String className = ((RefType) type).getClassName();
+        if (MODELED_TYPES.contains(className) || className.equals(SERVLET_INPUT_STREAM))
+            return newStubInstance(className, gen, units);
+
+        RefType objectType = RefType.v("java.lang.Object");
+        switch (className) {
+            case "java.lang.String":
+            case "java.lang.Object":
+            case "java.lang.CharSequence":
+                return newSourceCall(gen, units);
+            case "java.util.Map": {
+                Local map = newObject("java.util.HashMap", Collections.emptyList(), Collections.emptyList(), gen, units);
+                Value key = newSourceCall(gen, units);
+                Value values = newTaintedValue(ArrayType.v(stringType, 1), gen, units);
+                units.add(jimple.newInvokeStmt(jimple.newVirtualInvokeExpr(map,
+                        methodRef("java.util.HashMap", "put", Arrays.asList(objectType, objectType), objectType),
+                        key, values)));
+                return map;
+            }
+            case "java.util.Enumeration":
+            case "java.util.Collection":
+            case "java.util.List": {
+                Local vector = newObject("java.util.Vector", Collections.emptyList(), Collections.emptyList(), gen, units);
+                units.add(jimple.newInvokeStmt(jimple.newVirtualInvokeExpr(vector,
+                        methodRef("java.util.Vector", "add", Collections.singletonList(objectType), BooleanType.v()),
+                        newSourceCall(gen, units))));
+                if (!className.equals("java.util.Enumeration"))
+                    return vector;
+
+                Local elements = gen.generateLocal(type);
+                units.add(jimple.newAssignStmt(elements, jimple.newVirtualInvokeExpr(vector,
+                        methodRef("java.util.Vector", "elements", Collections.emptyList(), type))));
+                return elements;
+            }
+            case "java.io.Reader":
+            case "java.io.BufferedReader": {
+                Local reader = newObject("java.io.StringReader", Collections.singletonList(stringType),
+                        Collections.singletonList(newSourceCall(gen, units)), gen, units);
+                return newObject("java.io.BufferedReader", Collections.singletonList(RefType.v("java.io.Reader")),
+                        Collections.singletonList(reader), gen, units);
+            }
+            case "java.io.InputStream": {
+                Type bytesType = ArrayType.v(ByteType.v(), 1);
+                return newObject("java.io.ByteArrayInputStream", Collections.singletonList(bytesType),
+                        Collections.singletonList(newTaintedValue(bytesType, gen, units)), gen, units);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private Local newSourceCall(LocalGenerator gen, List<Unit> units) {
+        Local local = gen.generateLocal(RefType.v("java.lang.String"));
+        units.add(Jimple.v().newAssignStmt(local, Jimple.v().newStaticInvokeExpr(sourceMethod.makeRef())));
+        return local;
+    }
+
+    private static Local newObject(String className, List<Type> parameterTypes, List<Value> args,
+                                   LocalGenerator gen, List<Unit> units) {
+        RefType type = RefType.v(className);
+        Local local = gen.generateLocal(type);
+        units.add(Jimple.v().newAssignStmt(local, Jimple.v().newNewExpr(type)));
+        units.add(Jimple.v().newInvokeStmt(Jimple.v().newSpecialInvokeExpr(
+                local, methodRef(className, "<init>", parameterTypes, VoidType.v()), args)));
+        return local;
+    }
+
+    private static SootMethodRef methodRef(String className, String name, List<Type> parameterTypes, Type returnType) {
+        SootClass sootClass = Scene.v().forceResolve(className, SootClass.SIGNATURES);
+        return Scene.v().makeMethodRef(sootClass, name, parameterTypes, returnType, false);
+    }
+}
@@ -0,0 +1,177 @@
+package ca.utoronto.ece496.summaries;
+
+import java.util.*;
+
+/**
+ * Taint behaviour of one method: which inputs (receiver, params, static
+ * fields) flow into which outputs (return value, receiver, params, static fields)
+ * <p>
+ * A flow into the receiver or a param is a heap effect, i.e. the taint is
+ * stored somewhere in the object graph reachable from it.
+ */
+public final class MethodSummary {
+    public enum Kind {
+        THIS, PARAM, RETURN, STATIC_FIELD
+    }
+
+    /**
+     * One end of a flow
+     */
+    public static final class Endpoint {
+        public static final Endpoint THIS = new Endpoint(Kind.THIS, -1, "");
+        public static final Endpoint RETURN = new Endpoint(Kind.RETURN, -1, "");
+
+        private final Kind kind;
+        private final int index;
+        private final String field;
+
+        private Endpoint(Kind kind, int index, String field) {
+            this.kind = kind;
+            this.index = index;
+            this.field = field;
+        }
+
+        public static Endpoint param(int index) {
+            return new Endpoint(Kind.PARAM, index, "");
+        }
+
+        public static Endpoint staticField(String fieldSignature) {
+            return new Endpoint(Kind.STATIC_FIELD, -1, fieldSignature);
+        }
+
+        static Endpoint of(Kind kind, int index, String field) {
+            switch (kind) {
+                case THIS:
+                    return THIS;
+                case RETURN:
+                    return RETURN;
+                case PARAM:
+                    return param(index);
+                default:
+                    return staticField(field);
+            }
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return param index, only for {@link Kind#PARAM}
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return field signature, only for {@link Kind#STATIC_FIELD}
+         */
+        public String getField() {
+            return field;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Endpoint)) return false;
+            Endpoint endpoint = (Endpoint) o;
+            return kind == endpoint.kind && index == endpoint.index && field.equals(endpoint.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, index, field);
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case PARAM:
+                    return "param" + index;
+                case STATIC_FIELD:
+                    return field;
+                default:
+                    return kind.name().toLowerCase();
+            }
+        }
+    }
+
+    public static final class Flow {
+        private final Endpoint source;
+        private final Endpoint target;
+
+        public Flow(Endpoint source, Endpoint target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        public Endpoint getSource() {
+            return source;
+        }
+
+        public Endpoint getTarget() {
+            return target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Flow)) return false;
+            Flow flow = (Flow) o;
+            return source.equals(flow.source) && target.equals(flow.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + target.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + target;
+        }
+    }
+
+    private final String signature;
+    private final long bodyHash;
+    private final Set<Flow> flows;
+
+    public MethodSummary(String signature, long bodyHash, Set<Flow> flows) {
+        this.signature = signature;
+        this.bodyHash = bodyHash;
+        this.flows = Collections.unmodifiableSet(new LinkedHashSet<>(flows));
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return hash of the Jimple bodies of the method and its transitive callees
+     * the summary was computed from
+     */
+    public long getBodyHash() {
+        return bodyHash;
+    }
+
+    public Set<Flow> getFlows() {
+        return flows;
+    }
+
+    /**
+     * @return all flows starting at the given input
+     */
+    public List<Flow> getFlowsFrom(Endpoint source) {
+        List<Flow> result = new ArrayList<>();
+        for (Flow flow : flows) {
+            if (flow.source.equals(source))
+                result.add(flow);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return signature + " " + flows;
+    }
+}
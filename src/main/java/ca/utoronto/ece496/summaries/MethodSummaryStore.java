@@ -0,0 +1,154 @@
+package ca.utoronto.ece496.summaries;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk store of {@link MethodSummary}s, shared by all apps and runs
+ * <p>
+ * Summaries are looked up by method signature and only used if the hash of
+ * the current bodies of the method and its callees matches the one they were
+ * computed from, so a changed method (or callee) is re-summarized while an
+ * unchanged copy in another app is reused.
+ * <p>
+ * File layout: MAGIC VERSION count { signature bodyHash flowCount { source target } },
+ * where an endpoint is written as kind, index and field signature.
+ */
+public class MethodSummaryStore {
+    private static final Logger logger = LoggerFactory.getLogger(MethodSummaryStore.class);
+
+    private static final int MAGIC = 0x4d535330; // "MSS0"
+    private static final int VERSION = 1;
+
+    private final Map<String, MethodSummary> summaries = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger stale = new AtomicInteger();
+    private final AtomicInteger computed = new AtomicInteger();
+    private final AtomicInteger unsummarizable = new AtomicInteger();
+    private int loaded = 0;
+
+    /**
+     * Load a store, an empty one is returned if the file does not exist
+     */
+    public static MethodSummaryStore load(Path file) throws IOException {
+        MethodSummaryStore store = new MethodSummaryStore();
+        if (!Files.isRegularFile(file))
+            return store;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("Ignoring method summary store with unknown format: {}", file);
+                return store;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String signature = in.readUTF();
+                long bodyHash = in.readLong();
+                int flowCount = in.readInt();
+                Set<MethodSummary.Flow> flows = new LinkedHashSet<>();
+                for (int j = 0; j < flowCount; j++) {
+                    flows.add(new MethodSummary.Flow(readEndpoint(in), readEndpoint(in)));
+                }
+                store.summaries.put(signature, new MethodSummary(signature, bodyHash, flows));
+            }
+        }
+
+        store.loaded = store.summaries.size();
+        logger.info("Loaded {} method summaries from {}", store.loaded, file);
+        return store;
+    }
+
+    public void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            List<MethodSummary> values = new ArrayList<>(summaries.values());
+            out.writeInt(values.size());
+            for (MethodSummary summary : values) {
+                out.writeUTF(summary.getSignature());
+                out.writeLong(summary.getBodyHash());
+                out.writeInt(summary.getFlows().size());
+                for (MethodSummary.Flow flow : summary.getFlows()) {
+                    writeEndpoint(out, flow.getSource());
+                    writeEndpoint(out, flow.getTarget());
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the stored summary if it was computed from bodies with the same hash
+     */
+    MethodSummary lookup(String signature, long bodyHash) {
+        MethodSummary summary = summaries.get(signature);
+        if (summary == null)
+            return null;
+
+        if (summary.getBodyHash() != bodyHash) {
+            stale.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return summary;
+    }
+
+    void put(MethodSummary summary) {
+        computed.incrementAndGet();
+        summaries.put(summary.getSignature(), summary);
+    }
+
+    void recordUnsummarizable() {
+        unsummarizable.incrementAndGet();
+    }
+
+    public int size() {
+        return summaries.size();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getComputed() {
+        return computed.get();
+    }
+
+    /**
+     * @return share of summarized methods that were reused from disk
+     */
+    public double getHitRate() {
+        int total = hits.get() + computed.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public String formatReport() {
+        return String.format("Method summaries: %d loaded, %d reused, %d stale, %d computed, %d not summarizable, hit rate %.1f%%",
+                loaded, hits.get(), stale.get(), computed.get(), unsummarizable.get(), 100 * getHitRate());
+    }
+
+    private static void writeEndpoint(DataOutputStream out, MethodSummary.Endpoint endpoint) throws IOException {
+        out.writeByte(endpoint.getKind().ordinal());
+        out.writeInt(endpoint.getIndex());
+        out.writeUTF(endpoint.getField());
+    }
+
+    private static MethodSummary.Endpoint readEndpoint(DataInputStream in) throws IOException {
+        MethodSummary.Kind kind = MethodSummary.Kind.values()[in.readByte()];
+        int index = in.readInt();
+        String field = in.readUTF();
+        return MethodSummary.Endpoint.of(kind, index, field);
+    }
+}
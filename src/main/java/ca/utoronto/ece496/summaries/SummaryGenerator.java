@@ -0,0 +1,414 @@
+package ca.utoronto.ece496.summaries;
+
+import ca.utoronto.ece496.summaries.MethodSummary.Endpoint;
+import ca.utoronto.ece496.summaries.MethodSummary.Flow;
+import soot.*;
+import soot.jimple.*;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Computes {@link MethodSummary}s with a cheap flow-insensitive pass over the
+ * Jimple body of a method
+ * <p>
+ * Every local is mapped to the inputs its value may be derived from. Values
+ * read from a field or array element carry the inputs of the object they are
+ * read from, and a write into an object derived from the receiver, a param or
+ * a static field becomes a heap effect on that input. Calls are resolved with
+ * the call graph and use the summaries of their callees, unknown callees taint
+ * their result, receiver and reference arguments with all arguments.
+ * <p>
+ * Only library methods that can not reach a source, a sink or application
+ * code are summarized, as the solver does not descend into a summarized
+ * method: flows through application code (controllers, services) keep their
+ * full paths, and taints passed in by the entry points are never hidden from
+ * a sink. Shared utility and DAO modules on the library path are summarized.
+ */
+class SummaryGenerator {
+    private final Set<String> sourceSinkSignatures;
+
+    private final Map<SootMethod, Long> closureHashes = new HashMap<>();
+    private final Set<SootMethod> unsafeMethods = new HashSet<>();
+
+    SummaryGenerator(Collection<String> sources, Collection<String> sinks) {
+        this.sourceSinkSignatures = new HashSet<>(sources);
+        this.sourceSinkSignatures.addAll(sinks);
+    }
+
+    /**
+     * Hash over the bodies of the method and all its transitive callees, so a
+     * summary becomes stale as soon as anything it was composed from changes
+     *
+     * @return null if the method or one of its transitive callees is a source,
+     * a sink or part of the application
+     */
+    Long closureHash(SootMethod method) {
+        if (!method.isConcrete() || !isLibraryMethod(method))
+            return null;
+        if (!closureHashes.containsKey(method) && !unsafeMethods.contains(method))
+            computeClosureHashes(method);
+        return closureHashes.get(method);
+    }
+
+    /**
+     * A method on the call graph walk of {@link #computeClosureHashes}
+     */
+    private static class Node {
+        final int index;
+        int lowLink;
+        long bodyHash = 0;
+        boolean unsafe = false;
+        List<SootMethod> callees = Collections.emptyList();
+
+        Node(int index) {
+            this.index = index;
+            this.lowLink = index;
+        }
+    }
+
+    /**
+     * Hash every method reachable from the root once, bottom-up over the
+     * strongly connected components of the call graph (Tarjan): the members
+     * of a component share one hash, the sum of their body hashes and of the
+     * hashes of the components they call
+     * <p>
+     * The walk follows the call graph SPARK built, whose methods already have
+     * bodies. Methods without one (native, phantom) contribute nothing, the
+     * solver does not descend into them either.
+     */
+    private void computeClosureHashes(SootMethod root) {
+        Map<SootMethod, Node> nodes = new HashMap<>();
+        Deque<SootMethod> componentStack = new ArrayDeque<>();
+        Set<SootMethod> onComponentStack = new HashSet<>();
+        Deque<Map.Entry<SootMethod, Iterator<SootMethod>>> walk = new ArrayDeque<>();
+
+        enter(root, nodes, componentStack, onComponentStack, walk);
+        while (!walk.isEmpty()) {
+            SootMethod current = walk.peek().getKey();
+            Iterator<SootMethod> callees = walk.peek().getValue();
+            Node node = nodes.get(current);
+
+            if (callees.hasNext()) {
+                SootMethod callee = callees.next();
+                if (closureHashes.containsKey(callee) || unsafeMethods.contains(callee))
+                    continue;
+
+                Node calleeNode = nodes.get(callee);
+                if (calleeNode == null)
+                    enter(callee, nodes, componentStack, onComponentStack, walk);
+                else if (onComponentStack.contains(callee))
+                    node.lowLink = Math.min(node.lowLink, calleeNode.index);
+                continue;
+            }
+
+            walk.pop();
+            if (!walk.isEmpty()) {
+                Node caller = nodes.get(walk.peek().getKey());
+                caller.lowLink = Math.min(caller.lowLink, node.lowLink);
+            }
+            if (node.lowLink != node.index)
+                continue;
+
+            Set<SootMethod> component = new HashSet<>();
+            SootMethod member;
+            do {
+                member = componentStack.pop();
+                onComponentStack.remove(member);
+                component.add(member);
+            } while (member != current);
+            resolveComponent(component, nodes);
+        }
+    }
+
+    private void enter(SootMethod method, Map<SootMethod, Node> nodes, Deque<SootMethod> componentStack,
+                       Set<SootMethod> onComponentStack, Deque<Map.Entry<SootMethod, Iterator<SootMethod>>> walk) {
+        Node node = new Node(nodes.size());
+        nodes.put(method, node);
+        componentStack.push(method);
+        onComponentStack.add(method);
+
+        if (sourceSinkSignatures.contains(method.getSignature()) || !isLibraryMethod(method)) {
+            node.unsafe = true;
+        } else if (method.hasActiveBody()) {
+            Body body = method.getActiveBody();
+            for (Unit unit : body.getUnits()) {
+                Stmt stmt = (Stmt) unit;
+                if (stmt.containsInvokeExpr()
+                        && sourceSinkSignatures.contains(stmt.getInvokeExpr().getMethodRef().getSignature()))
+                    node.unsafe = true;
+            }
+            node.bodyHash = fnv(method.getSignature() + '\n' + body);
+            node.callees = new ArrayList<>(getCallees(method));
+        }
+        walk.push(new AbstractMap.SimpleImmutableEntry<>(method, node.callees.iterator()));
+    }
+
+    /**
+     * Callees outside the component are resolved already, it is complete
+     */
+    private void resolveComponent(Set<SootMethod> component, Map<SootMethod, Node> nodes) {
+        boolean unsafe = false;
+        long hash = 0;
+        for (SootMethod member : component) {
+            Node node = nodes.get(member);
+            unsafe |= node.unsafe;
+            // order independent combination of the bodies and callee closures
+            hash += node.bodyHash;
+            for (SootMethod callee : node.callees) {
+                if (component.contains(callee))
+                    continue;
+                if (unsafeMethods.contains(callee))
+                    unsafe = true;
+                else
+                    hash += closureHashes.get(callee);
+            }
+        }
+
+        if (unsafe) {
+            unsafeMethods.addAll(component);
+        } else {
+            for (SootMethod member : component) {
+                closureHashes.put(member, hash);
+            }
+        }
+    }
+
+    /**
+     * @return targets of all call graph edges out of the method, including implicit ones
+     */
+    private static Set<SootMethod> getCallees(SootMethod method) {
+        Set<SootMethod> callees = new LinkedHashSet<>();
+        Iterator<Edge> edges = Scene.v().getCallGraph().edgesOutOf(method);
+        while (edges.hasNext()) {
+            callees.add(edges.next().tgt());
+        }
+        return callees;
+    }
+
+    /**
+     * @return targets of the explicit call graph edges out of the call
+     */
+    private static Set<SootMethod> getCallees(Stmt stmt) {
+        Set<SootMethod> callees = new LinkedHashSet<>();
+        Iterator<Edge> edges = Scene.v().getCallGraph().edgesOutOf(stmt);
+        while (edges.hasNext()) {
+            Edge edge = edges.next();
+            if (edge.isExplicit())
+                callees.add(edge.tgt());
+        }
+        return callees;
+    }
+
+    /**
+     * Application classes include the generated dummy main and request stubs
+     */
+    private static boolean isLibraryMethod(SootMethod method) {
+        SootClass declaringClass = method.getDeclaringClass();
+        return !declaringClass.isApplicationClass() && !declaringClass.getName().startsWith("_");
+    }
+
+    /**
+     * @return 64 bit FNV-1a hash of the UTF-8 bytes of the text
+     */
+    private static long fnv(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @param closureHash     hash of the method as returned by {@link #closureHash}
+     * @param calleeSummaries summaries of callees, returns null for callees without one
+     */
+    MethodSummary generate(SootMethod method, long closureHash, Function<SootMethod, MethodSummary> calleeSummaries) {
+        Analysis analysis = new Analysis(calleeSummaries);
+        analysis.run(method.retrieveActiveBody());
+        return new MethodSummary(method.getSignature(), closureHash, analysis.flows);
+    }
+
+    /**
+     * State of the analysis of one body
+     */
+    private static class Analysis {
+        private final Function<SootMethod, MethodSummary> calleeSummaries;
+        private final Map<Local, Set<Endpoint>> origins = new HashMap<>();
+        private final Set<Flow> flows = new LinkedHashSet<>();
+        private boolean changed;
+
+        Analysis(Function<SootMethod, MethodSummary> calleeSummaries) {
+            this.calleeSummaries = calleeSummaries;
+        }
+
+        void run(Body body) {
+            do {
+                changed = false;
+                for (Unit unit : body.getUnits()) {
+                    process((Stmt) unit);
+                }
+            } while (changed);
+        }
+
+        private void process(Stmt stmt) {
+            if (stmt instanceof IdentityStmt) {
+                IdentityStmt identityStmt = (IdentityStmt) stmt;
+                Value rightOp = identityStmt.getRightOp();
+                if (rightOp instanceof ThisRef)
+                    addOrigins((Local) identityStmt.getLeftOp(), Collections.singleton(Endpoint.THIS));
+                else if (rightOp instanceof ParameterRef)
+                    addOrigins((Local) identityStmt.getLeftOp(),
+                            Collections.singleton(Endpoint.param(((ParameterRef) rightOp).getIndex())));
+            } else if (stmt instanceof AssignStmt) {
+                AssignStmt assignStmt = (AssignStmt) stmt;
+                Set<Endpoint> values = stmt.containsInvokeExpr()
+                        ? processCall(stmt)
+                        : originsOf(assignStmt.getRightOp());
+                assign(assignStmt.getLeftOp(), values);
+            } else if (stmt instanceof InvokeStmt) {
+                processCall(stmt);
+            } else if (stmt instanceof ReturnStmt) {
+                addFlows(originsOf(((ReturnStmt) stmt).getOp()), Endpoint.RETURN);
+            }
+        }
+
+        private void assign(Value target, Set<Endpoint> values) {
+            if (target instanceof Local) {
+                addOrigins((Local) target, values);
+            } else if (target instanceof StaticFieldRef) {
+                addFlows(values, Endpoint.staticField(((StaticFieldRef) target).getField().getSignature()));
+            } else if (target instanceof InstanceFieldRef) {
+                storeInto(((InstanceFieldRef) target).getBase(), values);
+            } else if (target instanceof ArrayRef) {
+                storeInto(((ArrayRef) target).getBase(), values);
+            }
+        }
+
+        /**
+         * Store the values somewhere in the object graph of the base
+         */
+        private void storeInto(Value base, Set<Endpoint> values) {
+            if (!(base instanceof Local) || values.isEmpty())
+                return;
+
+            // the object may be reached from the receiver, a param or a static field
+            for (Endpoint owner : new ArrayList<>(getOrigins((Local) base))) {
+                if (owner.getKind() != MethodSummary.Kind.RETURN)
+                    addFlows(values, owner);
+            }
+            addOrigins((Local) base, values);
+        }
+
+        private Set<Endpoint> processCall(Stmt stmt) {
+            InvokeExpr invokeExpr = stmt.getInvokeExpr();
+            Value base = invokeExpr instanceof InstanceInvokeExpr ? ((InstanceInvokeExpr) invokeExpr).getBase() : null;
+
+            Set<SootMethod> callees = getCallees(stmt);
+            List<MethodSummary> summaries = new ArrayList<>();
+            for (SootMethod callee : callees) {
+                MethodSummary summary = calleeSummaries.apply(callee);
+                if (summary == null) {
+                    summaries = null;
+                    break;
+                }
+                summaries.add(summary);
+            }
+
+            Set<Endpoint> result = new HashSet<>();
+            if (summaries == null || callees.isEmpty()) {
+                // unknown behaviour, e.g. a native System.arraycopy: everything flows
+                // into the result, the receiver and every argument it could write to
+                Set<Endpoint> all = new HashSet<>();
+                for (Value arg : invokeExpr.getArgs()) {
+                    all.addAll(originsOf(arg));
+                }
+                if (base != null) {
+                    all.addAll(originsOf(base));
+                    storeInto(base, all);
+                }
+                for (Value arg : invokeExpr.getArgs()) {
+                    if (arg.getType() instanceof RefLikeType)
+                        storeInto(arg, all);
+                }
+                return all;
+            }
+
+            for (MethodSummary summary : summaries) {
+                for (Flow flow : summary.getFlows()) {
+                    Set<Endpoint> values = actualOrigins(flow.getSource(), invokeExpr, base);
+                    Endpoint target = flow.getTarget();
+                    switch (target.getKind()) {
+                        case RETURN:
+                            result.addAll(values);
+                            break;
+                        case THIS:
+                            if (base != null)
+                                storeInto(base, values);
+                            break;
+                        case PARAM:
+                            if (target.getIndex() < invokeExpr.getArgCount())
+                                storeInto(invokeExpr.getArg(target.getIndex()), values);
+                            break;
+                        case STATIC_FIELD:
+                            addFlows(values, target);
+                            break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private Set<Endpoint> actualOrigins(Endpoint formal, InvokeExpr invokeExpr, Value base) {
+            switch (formal.getKind()) {
+                case THIS:
+                    return base == null ? Collections.emptySet() : originsOf(base);
+                case PARAM:
+                    return formal.getIndex() < invokeExpr.getArgCount()
+                            ? originsOf(invokeExpr.getArg(formal.getIndex())) : Collections.emptySet();
+                case STATIC_FIELD:
+                    return Collections.singleton(formal);
+                default:
+                    return Collections.emptySet();
+            }
+        }
+
+        private Set<Endpoint> originsOf(Value value) {
+            if (value instanceof Local)
+                return getOrigins((Local) value);
+            if (value instanceof StaticFieldRef)
+                return Collections.singleton(Endpoint.staticField(((StaticFieldRef) value).getField().getSignature()));
+
+            // field and array reads, casts, arithmetic etc. carry the inputs of all locals used
+            Set<Endpoint> result = new HashSet<>();
+            for (ValueBox box : value.getUseBoxes()) {
+                if (box.getValue() instanceof Local)
+                    result.addAll(getOrigins((Local) box.getValue()));
+            }
+            return result;
+        }
+
+        private Set<Endpoint> getOrigins(Local local) {
+            return origins.getOrDefault(local, Collections.emptySet());
+        }
+
+        private void addOrigins(Local local, Set<Endpoint> values) {
+            if (values.isEmpty())
+                return;
+            if (origins.computeIfAbsent(local, l -> new HashSet<>()).addAll(values))
+                changed = true;
+        }
+
+        private void addFlows(Set<Endpoint> sources, Endpoint target) {
+            for (Endpoint source : sources) {
+                if (source.getKind() == MethodSummary.Kind.RETURN || source.equals(target))
+                    continue;
+                if (flows.add(new Flow(source, target)))
+                    changed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ca.utoronto.ece496.summaries;
+
+import ca.utoronto.ece496.summaries.MethodSummary.Endpoint;
+import ca.utoronto.ece496.summaries.MethodSummary.Flow;
+import soot.*;
+import soot.jimple.*;
+import soot.jimple.infoflow.data.Abstraction;
+import soot.jimple.infoflow.data.AccessPath;
+import soot.jimple.infoflow.taintWrappers.AbstractTaintWrapper;
+
+import java.util.*;
+
+/**
+ * Taint wrapper applying {@link MethodSummary}s instead of letting the solver
+ * descend into the callee
+ * <p>
+ * A call is handled by the wrapper if every possible callee has a summary,
+ * either a valid one from the store or one computed on first use, which is then
+ * added to the store. Calls to methods that can reach a source or sink are left
+ * to the solver, and so are calls into application code (see {@link SummaryGenerator}).
+ */
+public class SummaryTaintWrapper extends AbstractTaintWrapper {
+    private final MethodSummaryStore store;
+    private final SummaryGenerator generator;
+
+    private final Map<SootMethod, MethodSummary> summaries = new HashMap<>();
+    private final Set<SootMethod> unsummarizable = new HashSet<>();
+    private final Set<SootMethod> inProgress = new HashSet<>();
+
+    /**
+     * @param store   summaries of earlier runs, new summaries are added to it
+     * @param sources signatures of the source methods
+     * @param sinks   signatures of the sink methods
+     */
+    public SummaryTaintWrapper(MethodSummaryStore store, Collection<String> sources, Collection<String> sinks) {
+        this.store = store;
+        this.generator = new SummaryGenerator(sources, sinks);
+    }
+
+    /**
+     * @return summary of the method, null if it can not be summarized
+     */
+    public synchronized MethodSummary getSummary(SootMethod method) {
+        MethodSummary summary = summaries.get(method);
+        if (summary != null)
+            return summary;
+        // a recursive call is treated as unknown while its summary is computed
+        if (unsummarizable.contains(method) || inProgress.contains(method))
+            return null;
+
+        Long closureHash = generator.closureHash(method);
+        if (closureHash == null) {
+            unsummarizable.add(method);
+            store.recordUnsummarizable();
+            return null;
+        }
+
+        summary = store.lookup(method.getSignature(), closureHash);
+        if (summary == null) {
+            inProgress.add(method);
+            try {
+                summary = generator.generate(method, closureHash, this::getSummary);
+            } finally {
+                inProgress.remove(method);
+            }
+            store.put(summary);
+        }
+        summaries.put(method, summary);
+        return summary;
+    }
+
+    /**
+     * @return summaries of all callees of the call, null if one of them has none
+     */
+    private List<MethodSummary> getCalleeSummaries(Stmt stmt) {
+        if (!stmt.containsInvokeExpr())
+            return null;
+
+        Collection<SootMethod> callees = manager.getICFG().getCalleesOfCallAt(stmt);
+        if (callees.isEmpty())
+            return null;
+
+        List<MethodSummary> result = new ArrayList<>();
+        for (SootMethod callee : callees) {
+            MethodSummary summary = getSummary(callee);
+            if (summary == null)
+                return null;
+            result.add(summary);
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean isExclusiveInternal(Stmt stmt, AccessPath taintedPath) {
+        return getCalleeSummaries(stmt) != null;
+    }
+
+    @Override
+    public Set<AccessPath> getTaintsForMethodInternal(Stmt stmt, AccessPath taintedPath) {
+        List<MethodSummary> calleeSummaries = getCalleeSummaries(stmt);
+        if (calleeSummaries == null)
+            return null;
+
+        Endpoint input = matchInput(stmt.getInvokeExpr(), taintedPath);
+        if (input == null)
+            return Collections.singleton(taintedPath);
+
+        Set<AccessPath> result = new HashSet<>();
+        result.add(taintedPath);
+        for (MethodSummary summary : calleeSummaries) {
+            for (Flow flow : summary.getFlowsFrom(input)) {
+                AccessPath output = createOutput(stmt, flow.getTarget());
+                if (output != null)
+                    result.add(output);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the input of the call the taint belongs to, null if the callee can not see it
+     */
+    private Endpoint matchInput(InvokeExpr invokeExpr, AccessPath taintedPath) {
+        if (taintedPath.isStaticFieldRef())
+            return Endpoint.staticField(taintedPath.getFirstField().getSignature());
+
+        Value plainValue = taintedPath.getPlainValue();
+        if (plainValue == null)
+            return null;
+
+        if (invokeExpr instanceof InstanceInvokeExpr && ((InstanceInvokeExpr) invokeExpr).getBase() == plainValue)
+            return Endpoint.THIS;
+        for (int i = 0; i < invokeExpr.getArgCount(); i++) {
+            if (invokeExpr.getArg(i) == plainValue)
+                return Endpoint.param(i);
+        }
+        return null;
+    }
+
+    private AccessPath createOutput(Stmt stmt, Endpoint target) {
+        InvokeExpr invokeExpr = stmt.getInvokeExpr();
+        Value value;
+        switch (target.getKind()) {
+            case RETURN:
+                value = stmt instanceof DefinitionStmt ? ((DefinitionStmt) stmt).getLeftOp() : null;
+                break;
+            case THIS:
+                value = invokeExpr instanceof InstanceInvokeExpr ? ((InstanceInvokeExpr) invokeExpr).getBase() : null;
+                break;
+            case PARAM:
+                value = target.getIndex() < invokeExpr.getArgCount() ? invokeExpr.getArg(target.getIndex()) : null;
+                break;
+            default:
+                SootField field = Scene.v().grabField(target.getField());
+                value = field == null ? null : Jimple.v().newStaticFieldRef(field.makeRef());
+                break;
+        }
+
+        if (value == null || value instanceof Constant)
+            return null;
+        // heap effects taint the whole object graph below the value
+        return manager.getAccessPathFactory().createAccessPath(value, true);
+    }
+
+    @Override
+    public boolean supportsCallee(SootMethod method) {
+        return getSummary(method) != null;
+    }
+
+    @Override
+    public boolean supportsCallee(Stmt callSite) {
+        return getCalleeSummaries(callSite) != null;
+    }
+
+    /**
+     * Summaries only describe forward flows, the alias taint passes the call unchanged
+     */
+    @Override
+    public Set<Abstraction> getAliasesForMethod(Stmt stmt, Abstraction d1, Abstraction taintedPath) {
+        return Collections.singleton(taintedPath);
+    }
+
+    public MethodSummaryStore getStore() {
+        return store;
+    }
+}
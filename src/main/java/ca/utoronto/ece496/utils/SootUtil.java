@@ -5,6 +5,9 @@ import soot.dava.internal.javaRep.DIntConstant;
 import soot.jimple.*;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by Charlie on 09. 03 2019
@@ -25,10 +28,23 @@ public class SootUtil {
         return sootClass;
     }
 
+    /**
+     * Give the method a body that only returns a default value
+     * <p>
+     * Non-static methods need to be added to their class first, as the body
+     * starts with an identity statement for "this"
+     */
     public static SootMethod createEmptyMethod(SootMethod target) {
         JimpleBody body = Jimple.v().newBody(target);
         target.setActiveBody(body);
 
+        if (!target.isStatic()) {
+            RefType thisType = target.getDeclaringClass().getType();
+            Local thisLocal = Jimple.v().newLocal("this", thisType);
+            body.getLocals().add(thisLocal);
+            body.getUnits().add(Jimple.v().newIdentityStmt(thisLocal, Jimple.v().newThisRef(thisType)));
+        }
+
         int paramCount = 0;
         for (Type parameterType : target.getParameterTypes()) {
             Local arg = Jimple.v().newLocal("p" + paramCount, parameterType);
@@ -79,4 +95,43 @@ public class SootUtil {
         return NullConstant.v();
     }
 
+    /**
+     * Resolve the possible targets of an invoke expression with class hierarchy analysis
+     * <p>
+     * Only concrete targets are returned, as there is no body to walk into for
+     * abstract or phantom methods
+     *
+     * @param invokeExpr invoke expression to resolve
+     * @return concrete methods that may be invoked (empty if resolution fails)
+     */
+    public static Set<SootMethod> getCHACallees(InvokeExpr invokeExpr) {
+        SootMethod method;
+        try {
+            method = invokeExpr.getMethod();
+        } catch (RuntimeException e) {
+            // unresolvable reference, nothing to walk into
+            return Collections.emptySet();
+        }
+
+        Set<SootMethod> callees = new HashSet<>();
+        if (invokeExpr instanceof StaticInvokeExpr || invokeExpr instanceof SpecialInvokeExpr) {
+            callees.add(method);
+        } else {
+            SootClass receiverClass = method.getDeclaringClass();
+            Type baseType = ((InstanceInvokeExpr) invokeExpr).getBase().getType();
+            if (baseType instanceof RefType)
+                receiverClass = ((RefType) baseType).getSootClass();
+
+            try {
+                callees.addAll(Scene.v().getFastHierarchy().resolveAbstractDispatch(receiverClass, method));
+            } catch (RuntimeException e) {
+                // incomplete hierarchy (e.g. phantom super types), fall back to the declared target
+                callees.add(method);
+            }
+        }
+
+        callees.removeIf(callee -> !callee.isConcrete() || callee.isPhantom());
+        return callees;
+    }
+
 }
@@ -4,8 +4,17 @@
  * Created by Charlie on 04. 10 2018
  */
 
+import ca.utoronto.ece496.infoflow.FlowLimiter
+import ca.utoronto.ece496.results.TaintPathDag
+import ca.utoronto.ece496.spring.SpringAppEntryPointCreator
+import ca.utoronto.ece496.summaries.MethodSummaryStore
+import ca.utoronto.ece496.summaries.SummaryTaintWrapper
 import soot.jimple.infoflow.Infoflow
 import soot.jimple.infoflow.InfoflowConfiguration
+import soot.jimple.infoflow.handlers.PreAnalysisHandler
+import java.lang.management.ManagementFactory
+import java.nio.file.Path
+import java.nio.file.Paths
 
 fun runAnalysis() {
     val infoflow = Infoflow()
@@ -39,11 +48,14 @@ fun runAnalysis() {
             )
     )
 
-    val results = infoflow.results
+    infoflow.results.printResults()
 
-    results.printResults()
-    for (dataFlowResult in results.resultSet) {
-        for (stmt in dataFlowResult.source.path) {
+    // paths share most of their statements, keep them as a DAG instead of one array per result
+    val paths = TaintPathDag.fromResults(infoflow.results)
+    println("Taint paths: $paths")
+
+    for (path in paths) {
+        for (stmt in path) {
             // variable = o.invoke(...);
             // variable = anothervar;
 
@@ -59,7 +71,90 @@ fun runAnalysis() {
     }
 }
 
+/**
+ * Analyze a Spring app with the default taint source and sink of [SpringAppEntryPointCreator]
+ *
+ * Also used as the training run of the AppCDS archive (see build.gradle), and reports
+ * the JVM uptime at which the Scene is loaded to compare startup with and without it
+ */
+fun runSpringAnalysis(appPath: String, libPath: String, entryPoints: List<String>,
+                      flowLimit: FlowLimiter.Config? = null, summaryFile: Path? = null): Int {
+    val infoflow = Infoflow()
+    infoflow.setPreProcessors(listOf(object : PreAnalysisHandler {
+        override fun onBeforeCallgraphConstruction() {
+            // Scene and dummy main are ready at this point
+            println("Scene loaded after ${ManagementFactory.getRuntimeMXBean().uptime} ms of JVM uptime")
+        }
+
+        override fun onAfterCallgraphConstruction() {
+        }
+    }))
+
+    val entryPointCreator = SpringAppEntryPointCreator(entryPoints)
+    val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+    val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+
+    // methods summarized by earlier runs (of any app) are not analyzed again
+    val summaryStore = summaryFile?.let { MethodSummaryStore.load(it) }
+    if (summaryStore != null)
+        infoflow.setTaintWrapper(SummaryTaintWrapper(summaryStore, sources, sinks))
+
+    try {
+        return computeSpringFlows(infoflow, appPath, libPath, entryPointCreator, sources, sinks, flowLimit)
+    } finally {
+        if (summaryStore != null) {
+            println(summaryStore.formatReport())
+            summaryStore.save(summaryFile)
+        }
+    }
+}
+
+private fun computeSpringFlows(infoflow: Infoflow, appPath: String, libPath: String,
+                               entryPointCreator: SpringAppEntryPointCreator,
+                               sources: List<String>, sinks: List<String>, flowLimit: FlowLimiter.Config?): Int {
+    if (flowLimit == null) {
+        infoflow.computeInfoflow(appPath, libPath, entryPointCreator, sources, sinks)
+        infoflow.results.printResults()
+        return infoflow.results.size()
+    }
+
+    // stop as soon as the caps are reached, only the flow count matters
+    val limiter = FlowLimiter(flowLimit, entryPointCreator)
+    infoflow.setTaintPropagationHandler(limiter)
+    infoflow.computeInfoflow(appPath, libPath, entryPointCreator, limiter.createSourceSinkManager(sources, sinks))
+
+    println("Flows found: ${limiter.flowCount}" + if (limiter.isLimitReached) " (stopped early)" else "")
+    for ((entryPoint, count) in limiter.flowsPerEntryPoint) {
+        println("  $entryPoint: $count")
+    }
+    return limiter.flowCount
+}
+
 fun main(args: Array<String>) {
 //    Uncomment to run analysis
 //    runAnalysis()
+
+    // --any-flow: exit with 1 as soon as one flow is found, for CI gating
+    // --summaries <file>: load method summaries from and save them to the file
+    var anyFlow = false
+    var summaryFile: Path? = null
+    var i = 0
+    while (i < args.size && args[i].startsWith("--")) {
+        when (args[i]) {
+            "--any-flow" -> anyFlow = true
+            "--summaries" -> summaryFile = args.getOrNull(++i)?.let { Paths.get(it) }
+        }
+        i++
+    }
+    val params = args.drop(i)
+
+    if (params.size < 3) {
+        println("Usage: flowdroid-experiment [--any-flow] [--summaries <file>] <appPath> <libPath> <entryPoint>...")
+        return
+    }
+
+    val flows = runSpringAnalysis(params[0], params[1], params.drop(2),
+            if (anyFlow) FlowLimiter.Config() else null, summaryFile)
+    if (anyFlow && flows > 0)
+        System.exit(1)
 }
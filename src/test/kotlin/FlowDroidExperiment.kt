@@ -1,10 +1,24 @@
+import ca.utoronto.ece496.callgraph.CallGraphCacheHandler
+import ca.utoronto.ece496.infoflow.FlowLimiter
+import ca.utoronto.ece496.infoflow.LeftoverBodyReleaser
+import ca.utoronto.ece496.infoflow.ParallelInfoflow
+import ca.utoronto.ece496.results.TaintPathDag
 import ca.utoronto.ece496.spring.SpringAppEntryPointCreator
+import ca.utoronto.ece496.summaries.MethodSummaryStore
+import ca.utoronto.ece496.summaries.SummaryTaintWrapper
+import org.junit.Assert
 import org.junit.FixMethodOrder
 import org.junit.Test
 import org.junit.runners.MethodSorters
+import soot.Scene
+import soot.SootClass
 import soot.jimple.infoflow.Infoflow
 import soot.jimple.infoflow.InfoflowConfiguration
 import soot.jimple.infoflow.entryPointCreators.DefaultEntryPointCreator
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+import javax.tools.ToolProvider
 
 /**
  *
@@ -58,5 +72,486 @@ class FlowDroidExperiment {
         )
 
         infoflow.results.printResults()
+        println("Taint paths: ${TaintPathDag.fromResults(infoflow.results)}")
     }
-}
\ No newline at end of file
+
+    /**
+     * 3 handlers x 32 sinks behind the same service and DAO chain: compare
+     * the statements the result arrays hold with the ones the DAG stores, and
+     * the heap retained with the arrays and with the DAG only
+     */
+    @Test
+    fun testTaintPathDag() {
+        val infoflow = Infoflow()
+        infoflow.config.pathConfiguration.pathReconstructionMode = InfoflowConfiguration.PathReconstructionMode.Precise
+
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(
+                SpringAppEntryPointCreator.getDefaultSinkSignature(),
+                "<ca.utoronto.ece496.samples.Mock: void sink(java.lang.String)>"
+        )
+        val reportEntryPoints = listOf("daily", "weekly", "monthly").map {
+            "<ca.utoronto.ece496.samples.ReportController: java.lang.String $it(java.lang.String)>"
+        }
+        infoflow.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(reportEntryPoints), sources, sinks)
+
+        val heapWithArrays = usedHeapAfterGc()
+        val paths = TaintPathDag.fromResults(infoflow.results)
+        infoflow.results.results?.clear()
+        val heapWithDag = usedHeapAfterGc()
+
+        println("Taint paths: $paths")
+        println("Heap after GC: ${heapWithArrays / 1024} KB with the result arrays, ${heapWithDag / 1024} KB with the DAG " +
+                "(${(heapWithArrays - heapWithDag) / 1024} KB released)")
+        Assert.assertTrue(paths.pathCount >= 32)
+        Assert.assertTrue(paths.segmentStatementCount * 2 < paths.statementCount)
+    }
+
+    /**
+     * Heap in use after a full GC, to compare what different result representations retain
+     */
+    private fun usedHeapAfterGc(): Long {
+        System.gc()
+        return ManagementFactory.getMemoryMXBean().heapMemoryUsage.used
+    }
+
+    /**
+     * hello() never reaches the sink itself, but it writes the field that
+     * userPage(...) leaks, so both of them have to survive the pre-filter.
+     * status() only reads that field and has to be dropped
+     */
+    @Test
+    fun testSinkReachabilityFilter() {
+        val infoflow = Infoflow()
+
+        val sources = listOf("<ca.utoronto.ece496.samples.Mock: java.lang.String source()>")
+        val sinks = listOf("<ca.utoronto.ece496.samples.Mock: void sink(java.lang.String)>")
+
+        val statusEntryPoint = "<ca.utoronto.ece496.samples.HelloWorldController: java.lang.String status()>"
+        val analysisConfig = SpringAppEntryPointCreator.AnalysisConfig()
+        analysisConfig.pruneEntryPointsWithoutSinks = true
+        analysisConfig.sources = sources
+        analysisConfig.sinks = sinks
+        val se = SpringAppEntryPointCreator(entryPoints + statusEntryPoint, analysisConfig)
+
+        infoflow.computeInfoflow(libPath, appPath, se, sources, sinks)
+
+        for ((entryPoint, reason) in se.skippedEntryPoints) {
+            println("Skipped $entryPoint: $reason")
+        }
+        Assert.assertEquals(setOf(statusEntryPoint), se.skippedEntryPoints.keys)
+        infoflow.results.printResults()
+    }
+
+    /**
+     * With the default sink consuming the return values, greeting() has to be
+     * kept for its source call although it takes no param and reads no field,
+     * and its flow has to be found the same as without the pre-filter
+     */
+    @Test
+    fun testSinkReachabilityFilterReturnValues() {
+        val sources = listOf(
+                SpringAppEntryPointCreator.getDefaultSourceSignature(),
+                "<ca.utoronto.ece496.samples.Mock: java.lang.String source()>"
+        )
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+        val greetingEntryPoint = "<ca.utoronto.ece496.samples.HelloWorldController: java.lang.String greeting()>"
+
+        val resultCounts = mutableListOf<Int>()
+        for (prune in listOf(false, true)) {
+            val infoflow = Infoflow()
+            val analysisConfig = SpringAppEntryPointCreator.AnalysisConfig()
+            analysisConfig.pruneEntryPointsWithoutSinks = prune
+            analysisConfig.sources = sources
+            analysisConfig.sinks = sinks
+            val se = SpringAppEntryPointCreator(listOf(greetingEntryPoint), analysisConfig)
+
+            infoflow.computeInfoflow(libPath, appPath, se, sources, sinks)
+
+            Assert.assertTrue(se.skippedEntryPoints.isEmpty())
+            resultCounts.add(infoflow.results.size())
+        }
+        Assert.assertTrue(resultCounts[0] > 0)
+        Assert.assertEquals(resultCounts[0], resultCounts[1])
+    }
+
+    /**
+     * The second run has unchanged bytecode and should restore the whole
+     * call graph from the cache file written by the first one, edge by edge
+     */
+    @Test
+    fun testCallGraphCache() {
+        val cacheFile = Files.createTempFile("callgraph", ".cgc")
+        Files.delete(cacheFile)
+
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+
+        val edgeSets = mutableListOf<Set<String>>()
+        for (run in 0..1) {
+            val infoflow = Infoflow()
+            val cacheHandler = CallGraphCacheHandler(cacheFile)
+            infoflow.setPreProcessors(listOf(cacheHandler))
+
+            val start = System.nanoTime()
+            infoflow.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(entryPoints), sources, sinks)
+            println("Run $run took ${(System.nanoTime() - start) / 1000000} ms, cached: ${cacheHandler.isLoadedFromCache}")
+
+            Assert.assertEquals(run == 1, cacheHandler.isLoadedFromCache)
+            edgeSets.add(callGraphEdges())
+            infoflow.results.printResults()
+        }
+        Assert.assertEquals(edgeSets[0], edgeSets[1])
+    }
+
+    /**
+     * After the body of Mock.source() changed (it now reads a static field),
+     * the patched call graph has to contain every edge of a fresh SPARK graph
+     * of the changed app, including the static initializer edges
+     */
+    @Test
+    fun testCallGraphCachePatch() {
+        val cacheFile = Files.createTempFile("callgraph", ".cgc")
+        Files.delete(cacheFile)
+
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+
+        // baseline of the unchanged app
+        val baseline = Infoflow()
+        baseline.setPreProcessors(listOf(CallGraphCacheHandler(cacheFile)))
+        baseline.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(entryPoints), sources, sinks)
+
+        val changedAppPath = compileIntoAppCopy("Mock", """
+            package ca.utoronto.ece496.samples;
+
+            public class Mock {
+                public static void sink(String data) {
+                    System.out.println(data);
+                }
+
+                public static String source() {
+                    return "tainted " + Boolean.TRUE;
+                }
+            }
+        """.trimIndent())
+
+        val patched = Infoflow()
+        val cacheHandler = CallGraphCacheHandler(cacheFile)
+        patched.setPreProcessors(listOf(cacheHandler))
+        patched.computeInfoflow(libPath, changedAppPath, SpringAppEntryPointCreator(entryPoints), sources, sinks)
+        Assert.assertTrue(cacheHandler.isLoadedFromCache)
+        val patchedEdges = callGraphEdges()
+
+        val fresh = Infoflow()
+        fresh.computeInfoflow(libPath, changedAppPath, SpringAppEntryPointCreator(entryPoints), sources, sinks)
+        val sparkEdges = callGraphEdges()
+
+        val missing = sparkEdges - patchedEdges
+        println("Patched graph: ${patchedEdges.size} edges, SPARK graph: ${sparkEdges.size} edges, missing: $missing")
+        Assert.assertTrue(missing.isEmpty())
+    }
+
+    private fun callGraphEdges(): Set<String> =
+            Scene.v().callGraph.map { "${it.src()} ${it.srcUnit()} ${it.tgt()} ${it.kind()}" }.toSet()
+
+    /**
+     * Compile a class of the samples package into a copy of the sample app classes
+     *
+     * @return app path of the copy
+     */
+    private fun compileIntoAppCopy(className: String, source: String): String {
+        val copy = Files.createTempDirectory("classes")
+        File(appPath).copyRecursively(copy.toFile(), overwrite = true)
+
+        val sourceFile = Files.createTempDirectory("src").resolve("$className.java")
+        Files.write(sourceFile, source.toByteArray())
+        val compiler = ToolProvider.getSystemJavaCompiler()
+        Assert.assertEquals(0, compiler.run(null, null, null, "-source", "8", "-target", "8",
+                "-cp", appPath, "-d", copy.toString(), sourceFile.toString()))
+        return copy.toString()
+    }
+
+    /**
+     * Compare the generated dummy main and the analysis time with and without
+     * shared param instances, on the ProfileController handlers that all take
+     * a UserForm and/or an Address
+     * <p>
+     * rename(...) stores a tainted name in its form, which show(...) only
+     * returns if both get the same instance, i.e. the shared run reports an
+     * extra (spurious) flow
+     * <p>
+     * The shrink of the dummy main is reported on a generated controller with
+     * 120 such handlers
+     */
+    @Test
+    fun testSharedParameterInstances() {
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+        val profileEntryPoints = listOf(
+                "<ca.utoronto.ece496.samples.ProfileController: java.lang.String show(ca.utoronto.ece496.samples.UserForm)>",
+                "<ca.utoronto.ece496.samples.ProfileController: java.lang.String address(ca.utoronto.ece496.samples.UserForm,ca.utoronto.ece496.samples.Address)>",
+                "<ca.utoronto.ece496.samples.ProfileController: java.lang.String rename(ca.utoronto.ece496.samples.UserForm,java.lang.String)>",
+                "<ca.utoronto.ece496.samples.ProfileController: java.lang.String billing(ca.utoronto.ece496.samples.Address)>"
+        )
+
+        val unitCounts = mutableListOf<Int>()
+        val resultCounts = mutableListOf<Int>()
+        for (shared in listOf(false, true)) {
+            val infoflow = Infoflow()
+            val analysisConfig = SpringAppEntryPointCreator.AnalysisConfig()
+            analysisConfig.shareParameterInstances = shared
+            val se = SpringAppEntryPointCreator(profileEntryPoints, analysisConfig)
+
+            val start = System.nanoTime()
+            infoflow.computeInfoflow(libPath, appPath, se, sources, sinks)
+            println("Shared: $shared, dummy main: ${se.dummyMainUnitCount} units, ${se.dummyMainLocalCount} locals, " +
+                    "analysis took ${(System.nanoTime() - start) / 1000000} ms, ${infoflow.results.size()} results")
+            unitCounts.add(se.dummyMainUnitCount)
+            resultCounts.add(infoflow.results.size())
+        }
+        Assert.assertTrue(unitCounts[1] < unitCounts[0])
+        // rename(...) followed by show(...)
+        Assert.assertTrue(resultCounts[1] > resultCounts[0])
+
+        val handlerCount = 120
+        val paramLists = listOf("UserForm form", "Address address", "UserForm form, Address address")
+        val handlers = (0 until handlerCount).joinToString("\n") {
+            "    public String handler$it(${paramLists[it % paramLists.size]}) { return \"ok\"; }"
+        }
+        val largeAppPath = compileIntoAppCopy("LargeController",
+                "package ca.utoronto.ece496.samples;\n\npublic class LargeController {\n$handlers\n}\n")
+        val largeEntryPoints = (0 until handlerCount).map {
+            val types = paramLists[it % paramLists.size].split(", ")
+                    .joinToString(",") { param -> "ca.utoronto.ece496.samples." + param.substringBefore(' ') }
+            "<ca.utoronto.ece496.samples.LargeController: java.lang.String handler$it($types)>"
+        }
+
+        val largeUnitCounts = mutableListOf<Int>()
+        for (shared in listOf(false, true)) {
+            val infoflow = Infoflow()
+            val analysisConfig = SpringAppEntryPointCreator.AnalysisConfig()
+            analysisConfig.shareParameterInstances = shared
+            val se = SpringAppEntryPointCreator(largeEntryPoints, analysisConfig)
+
+            val start = System.nanoTime()
+            infoflow.computeInfoflow(libPath, largeAppPath, se, sources, sinks)
+            println("$handlerCount handlers, shared: $shared, dummy main: ${se.dummyMainUnitCount} units, " +
+                    "${se.dummyMainLocalCount} locals, analysis took ${(System.nanoTime() - start) / 1000000} ms")
+            largeUnitCounts.add(se.dummyMainUnitCount)
+        }
+        println("Dummy main shrinks by ${100 - largeUnitCounts[1] * 100 / largeUnitCounts[0]}% with shared param instances")
+        Assert.assertTrue(largeUnitCounts[1] < largeUnitCounts[0])
+    }
+
+    /**
+     * Handlers taking HttpServletRequest, Principal, HttpSession, MultipartFile
+     * and Model: with stubs every one of them returns request data to the
+     * default sink, and no Tomcat or Spring implementation of these types gets
+     * its bodies loaded
+     */
+    @Test
+    fun testSyntheticRequestModels() {
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+        val requestEntryPoints = listOf(
+                "<ca.utoronto.ece496.samples.RequestController: java.lang.String search(javax.servlet.http.HttpServletRequest)>",
+                "<ca.utoronto.ece496.samples.RequestController: java.lang.String whoami(java.security.Principal)>",
+                "<ca.utoronto.ece496.samples.RequestController: java.lang.String cart(javax.servlet.http.HttpSession)>",
+                "<ca.utoronto.ece496.samples.RequestController: java.lang.String upload(org.springframework.web.multipart.MultipartFile,org.springframework.ui.Model)>"
+        )
+        val implementationPrefixes = listOf(
+                "org.apache.catalina.",
+                "org.apache.tomcat.",
+                "org.springframework.web.multipart.support.",
+                "org.springframework.web.multipart.commons.",
+                "org.springframework.ui.ConcurrentModel",
+                "org.springframework.ui.ExtendedModelMap",
+                "org.springframework.validation.support."
+        )
+
+        for (stubs in listOf(false, true)) {
+            val infoflow = Infoflow()
+            val analysisConfig = SpringAppEntryPointCreator.AnalysisConfig()
+            analysisConfig.useSyntheticRequestModels = stubs
+            val se = SpringAppEntryPointCreator(requestEntryPoints, analysisConfig)
+
+            infoflow.computeInfoflow(libPath, appPath, se, sources, sinks)
+
+            val loadedImplementations = Scene.v().classes.filter { sootClass ->
+                sootClass.resolvingLevel() >= SootClass.BODIES && implementationPrefixes.any { sootClass.name.startsWith(it) }
+            }
+            val leakingEntryPoints = infoflow.results.results?.keySet()
+                    ?.mapNotNull { se.entryPointSinkCalls[it.stmt]?.signature }?.toSet() ?: emptySet()
+            println("Stubs: $stubs, ${infoflow.results.size()} results from ${leakingEntryPoints.size} entry points, " +
+                    "${loadedImplementations.size} implementation classes with bodies")
+
+            if (stubs) {
+                Assert.assertEquals(requestEntryPoints.toSet(), leakingEntryPoints)
+                Assert.assertEquals(emptyList<SootClass>(), loadedImplementations)
+            }
+        }
+    }
+
+    /**
+     * Run the work-stealing solver with 1 to 32 threads and print per-thread
+     * utilization, to check how the analysis scales
+     */
+    @Test
+    fun testWorkStealingScaling() {
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+
+        for (threads in listOf(1, 2, 4, 8, 16, 32)) {
+            val infoflow = ParallelInfoflow()
+            infoflow.setThreadCount(threads)
+
+            val start = System.nanoTime()
+            infoflow.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(entryPoints), sources, sinks)
+            println("$threads threads: ${(System.nanoTime() - start) / 1000000} ms, ${infoflow.results.size()} results")
+            print(infoflow.formatExecutorStatistics())
+        }
+    }
+
+    /**
+     * Library bodies loaded by the pre-filter's CHA walk but not reachable in
+     * the call graph are released after call graph construction, the results
+     * must stay the same
+     */
+    @Test
+    fun testLeftoverBodyReleaser() {
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+
+        val results = mutableListOf<Set<String>>()
+        for (release in listOf(false, true)) {
+            val infoflow = Infoflow()
+            val releaser = LeftoverBodyReleaser()
+            if (release)
+                infoflow.setPreProcessors(listOf(releaser))
+
+            val analysisConfig = SpringAppEntryPointCreator.AnalysisConfig()
+            analysisConfig.pruneEntryPointsWithoutSinks = true
+            analysisConfig.sources = sources
+            analysisConfig.sinks = sinks
+            infoflow.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(entryPoints, analysisConfig), sources, sinks)
+
+            println("Release: $release, ${infoflow.results.size()} results, $releaser")
+            results.add(infoflow.results.results?.keySet()?.map { it.toString() }?.toSet() ?: emptySet())
+            if (release)
+                Assert.assertTrue(releaser.releasedBodies > 0)
+        }
+        Assert.assertTrue(results[0].isNotEmpty())
+        Assert.assertEquals(results[0], results[1])
+    }
+
+    /**
+     * The second run shares the store with the first one and should reuse
+     * all of its summaries, with the same results
+     */
+    @Test
+    fun testMethodSummaries() {
+        val storeFile = Files.createTempFile("summaries", ".mss")
+        Files.delete(storeFile)
+
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+
+        val resultCounts = mutableListOf<Int>()
+        for (run in 0..1) {
+            val store = MethodSummaryStore.load(storeFile)
+            val infoflow = Infoflow()
+            infoflow.setTaintWrapper(SummaryTaintWrapper(store, sources, sinks))
+
+            val start = System.nanoTime()
+            infoflow.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(entryPoints), sources, sinks)
+            println("Run $run took ${(System.nanoTime() - start) / 1000000} ms")
+            println(store.formatReport())
+            store.save(storeFile)
+
+            resultCounts.add(infoflow.results.size())
+            if (run == 1)
+                Assert.assertEquals(0, store.computed)
+        }
+        Assert.assertEquals(resultCounts[0], resultCounts[1])
+    }
+
+    /**
+     * The handler's param only reaches the default sink through the string
+     * concatenation, which the summaries replace down to the native array
+     * copy, the results must stay the same
+     */
+    @Test
+    fun testMethodSummariesConcatenation() {
+        val storeFile = Files.createTempFile("summaries", ".mss")
+        Files.delete(storeFile)
+
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(SpringAppEntryPointCreator.getDefaultSinkSignature())
+        val greetEntryPoints = listOf("<ca.utoronto.ece496.samples.HelloWorldController: java.lang.String greet(java.lang.String)>")
+
+        val results = mutableListOf<Set<String>>()
+        for (summaries in listOf(false, true)) {
+            val infoflow = Infoflow()
+            val store = MethodSummaryStore.load(storeFile)
+            if (summaries)
+                infoflow.setTaintWrapper(SummaryTaintWrapper(store, sources, sinks))
+
+            infoflow.computeInfoflow(libPath, appPath, SpringAppEntryPointCreator(greetEntryPoints), sources, sinks)
+            println("Summaries: $summaries, ${infoflow.results.size()} results")
+            results.add(infoflow.results.results?.keySet()?.map { it.toString() }?.toSet() ?: emptySet())
+            if (summaries) {
+                println(store.formatReport())
+                Assert.assertTrue(store.computed > 0)
+            }
+        }
+        Assert.assertTrue(results[0].isNotEmpty())
+        Assert.assertEquals(results[0], results[1])
+    }
+
+    /**
+     * Cap the flows in total and per entry point, the limited runs must stop
+     * early and count exactly up to their caps
+     */
+    @Test
+    fun testFlowLimiter() {
+        val sources = listOf(SpringAppEntryPointCreator.getDefaultSourceSignature())
+        val sinks = listOf(
+                SpringAppEntryPointCreator.getDefaultSinkSignature(),
+                "<ca.utoronto.ece496.samples.Mock: void sink(java.lang.String)>"
+        )
+        val auditEntryPoints = listOf(
+                "<ca.utoronto.ece496.samples.AuditController: java.lang.String audit(java.lang.String)>",
+                "<ca.utoronto.ece496.samples.AuditController: java.lang.String trace(java.lang.String)>"
+        )
+
+        val limiters = mutableListOf<FlowLimiter>()
+        for (limitConfig in listOf(FlowLimiter.Config(0, 0, 0), FlowLimiter.Config(1, 0, 0), FlowLimiter.Config(0, 0, 1))) {
+            val infoflow = Infoflow()
+            val se = SpringAppEntryPointCreator(auditEntryPoints)
+            val limiter = FlowLimiter(limitConfig, se)
+            infoflow.setTaintPropagationHandler(limiter)
+
+            val start = System.nanoTime()
+            infoflow.computeInfoflow(libPath, appPath, se, limiter.createSourceSinkManager(sources, sinks))
+            println("Caps ${limitConfig.maxFlows}/${limitConfig.maxFlowsPerSink}/${limitConfig.maxFlowsPerEntryPoint}: " +
+                    "${(System.nanoTime() - start) / 1000000} ms, ${limiter.flowCount} flows, " +
+                    "${limiter.propagationCount} propagations, per entry point ${limiter.flowsPerEntryPoint}")
+            limiters.add(limiter)
+        }
+        val (full, anyFlow, perEntryPoint) = limiters
+
+        // audit has three sinks and returns its parameter, trace has two
+        Assert.assertEquals(7, full.flowCount)
+        Assert.assertFalse(full.isLimitReached)
+        Assert.assertEquals(mapOf(auditEntryPoints[0] to 4, auditEntryPoints[1] to 3), full.flowsPerEntryPoint)
+
+        Assert.assertEquals(1, anyFlow.flowCount)
+        Assert.assertTrue(anyFlow.isLimitReached)
+        Assert.assertTrue(anyFlow.propagationCount < full.propagationCount)
+
+        Assert.assertEquals(2, perEntryPoint.flowCount)
+        Assert.assertFalse(perEntryPoint.isLimitReached)
+        Assert.assertEquals(mapOf(auditEntryPoints[0] to 1, auditEntryPoints[1] to 1), perEntryPoint.flowsPerEntryPoint)
+    }
+}